@@ -0,0 +1,73 @@
+package bench;
+
+import org.apache.ignite.cache.affinity.AffinityFunction;
+import org.apache.ignite.cache.affinity.AffinityFunctionContext;
+import org.apache.ignite.cluster.ClusterNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks {@code MyAffinityFunction.assignPartitions} on synthetic topologies, for the initial assignment and for
+ * the reassignment after a node joined.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+public class AssignPartitionsBenchmark {
+
+    @Param({"4", "16", "64"})
+    private int nodes;
+
+    @Param({"1", "16"})
+    private int partitionsPerCluster;
+
+    @Param({"0", "1"})
+    private int backups;
+
+    private AffinityFunction affinity;
+
+    private AffinityFunctionContext initial;
+
+    private AffinityFunctionContext joined;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        String[] domain = Fixtures.terms(5000);
+        affinity = Fixtures.affinityFunction(0.2, domain, Fixtures.similarities(domain, 42), partitionsPerCluster);
+
+        List<ClusterNode> topology = Fixtures.nodes(nodes, 0);
+        initial = Fixtures.context(topology, null, backups);
+
+        List<ClusterNode> grown = new ArrayList<>(topology);
+        grown.addAll(Fixtures.nodes(1, nodes));
+        joined = Fixtures.context(grown, affinity.assignPartitions(initial), backups);
+    }
+
+    @Benchmark
+    public List<List<ClusterNode>> initialAssignment() {
+        return affinity.assignPartitions(initial);
+    }
+
+    @Benchmark
+    public List<List<ClusterNode>> nodeJoined() {
+        return affinity.assignPartitions(joined);
+    }
+
+}
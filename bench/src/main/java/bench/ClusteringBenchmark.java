@@ -0,0 +1,50 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the clustering algorithm ({@code ClusteringEngine}) on synthetic active domains from 10 to 20k terms.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+public class ClusteringBenchmark {
+
+    @Param({"10", "100", "1000", "5000", "20000"})
+    private int terms;
+
+    @Param({"0.2"})
+    private double alpha;
+
+    private Object similarities;
+
+    private int[] ids;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        similarities = Fixtures.similarities(Fixtures.terms(terms), 42);
+        ids = Fixtures.identity(terms);
+    }
+
+    @Benchmark
+    public Object clustering() {
+        return Fixtures.cluster(similarities, ids, alpha);
+    }
+
+}
@@ -0,0 +1,316 @@
+package bench;
+
+import org.apache.ignite.Ignite;
+import org.apache.ignite.Ignition;
+import org.apache.ignite.cache.affinity.AffinityFunction;
+import org.apache.ignite.cache.affinity.AffinityFunctionContext;
+import org.apache.ignite.cluster.ClusterNode;
+import org.apache.ignite.configuration.IgniteConfiguration;
+import org.apache.ignite.events.DiscoveryEvent;
+import org.apache.ignite.internal.processors.affinity.AffinityTopologyVersion;
+import org.apache.ignite.spi.discovery.tcp.TcpDiscoverySpi;
+import org.apache.ignite.spi.discovery.tcp.ipfinder.vm.TcpDiscoveryVmIpFinder;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Fixtures of the benchmarks. JMH does not allow benchmarks in the default package and classes of the default
+ * package can not be referenced from a named package, so the classes of the project are accessed through
+ * {@link AffinityFunction} and through constant method handles, which the JIT compiles like direct calls.
+ */
+final class Fixtures {
+
+    private static final MethodHandle NEW_MATRIX;
+
+    private static final MethodHandle SET_SIMILARITY;
+
+    private static final MethodHandle WRITE_MATRIX;
+
+    private static final MethodHandle NEW_MAPPED_MATRIX;
+
+    private static final MethodHandle STORE_SIMILARITY;
+
+    private static final MethodHandle NEW_AFFINITY;
+
+    private static final MethodHandle SET_PARTS_PER_CLUSTER;
+
+    private static final MethodHandle AFFINITY_SIMILARITY;
+
+    private static final MethodHandle NEW_ENGINE;
+
+    private static final MethodHandle RUN_ENGINE;
+
+    private static final MethodHandle NEW_ILL_KEY;
+
+    private static final MethodHandle NEW_INFO_KEY;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            Class<?> matrix = Class.forName("SimilarityMatrix");
+            Class<?> store = Class.forName("SimilarityStore");
+            Class<?> affinity = Class.forName("MyAffinityFunction");
+            Class<?> engine = Class.forName("ClusteringEngine");
+
+            NEW_MATRIX = lookup.findConstructor(matrix, MethodType.methodType(void.class, String[].class))
+                    .asType(MethodType.methodType(Object.class, String[].class));
+            SET_SIMILARITY = lookup.findVirtual(matrix, "set",
+                    MethodType.methodType(void.class, int.class, int.class, double.class))
+                    .asType(MethodType.methodType(void.class, Object.class, int.class, int.class, double.class));
+            WRITE_MATRIX = lookup.findVirtual(matrix, "write", MethodType.methodType(void.class, Path.class))
+                    .asType(MethodType.methodType(void.class, Object.class, Path.class));
+            NEW_MAPPED_MATRIX = lookup.findConstructor(Class.forName("MappedSimilarityMatrix"),
+                    MethodType.methodType(void.class, Path.class))
+                    .asType(MethodType.methodType(Object.class, Path.class));
+            STORE_SIMILARITY = lookup.findVirtual(store, "similarity",
+                    MethodType.methodType(double.class, int.class, int.class))
+                    .asType(MethodType.methodType(double.class, Object.class, int.class, int.class));
+            NEW_AFFINITY = lookup.findConstructor(affinity,
+                    MethodType.methodType(void.class, double.class, Object[].class, store))
+                    .asType(MethodType.methodType(AffinityFunction.class, double.class, Object[].class, Object.class));
+            SET_PARTS_PER_CLUSTER = lookup.findVirtual(affinity, "setPartitionsPerCluster",
+                    MethodType.methodType(affinity, int.class))
+                    .asType(MethodType.methodType(void.class, AffinityFunction.class, int.class));
+            AFFINITY_SIMILARITY = lookup.findVirtual(affinity, "similarity",
+                    MethodType.methodType(double.class, Object.class, Object.class))
+                    .asType(MethodType.methodType(double.class, AffinityFunction.class, Object.class, Object.class));
+            NEW_ENGINE = lookup.findConstructor(engine,
+                    MethodType.methodType(void.class, store, int[].class, double.class))
+                    .asType(MethodType.methodType(Object.class, Object.class, int[].class, double.class));
+            RUN_ENGINE = lookup.findVirtual(engine, "run", MethodType.methodType(engine))
+                    .asType(MethodType.methodType(Object.class, Object.class));
+            NEW_ILL_KEY = lookup.findConstructor(Class.forName("IllKey"),
+                    MethodType.methodType(void.class, int.class, String.class))
+                    .asType(MethodType.methodType(Object.class, int.class, String.class));
+            NEW_INFO_KEY = lookup.findConstructor(Class.forName("InfoKey"),
+                    MethodType.methodType(void.class, int.class, int.class))
+                    .asType(MethodType.methodType(Object.class, int.class, int.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private Fixtures() {
+    }
+
+
+//##################### Terms & Similarities ######################
+
+    /**
+     * Synthetic terms "T0", "T1", ...
+     */
+    static String[] terms(int n) {
+        String[] terms = new String[n];
+        for (int i = 0; i < n; i++)
+            terms[i] = "T" + i;
+        return terms;
+    }
+
+    /**
+     * Synthetic similarity matrix: the terms form groups of about 50 terms with similarities above 0.3 inside a
+     * group and below 0.2 between groups, s.t. a clustering with alpha 0.2 finds about n/50 clusters.
+     */
+    static Object similarities(String[] terms, long seed) {
+        int n = terms.length;
+        int groups = Math.max(1, n / 50);
+        Random random = new Random(seed);
+        Object matrix = newMatrix(terms);
+        for (int i = 1; i < n; i++) {
+            for (int j = 0; j < i; j++) {
+                double sim = i % groups == j % groups ? 0.3 + 0.5 * random.nextDouble() : 0.19 * random.nextDouble();
+                set(matrix, i, j, sim);
+            }
+        }
+        return matrix;
+    }
+
+    static int[] identity(int n) {
+        int[] ids = new int[n];
+        for (int i = 0; i < n; i++)
+            ids[i] = i;
+        return ids;
+    }
+
+    private static Object newMatrix(String[] terms) {
+        try {
+            return (Object) NEW_MATRIX.invokeExact(terms);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void set(Object matrix, int i, int j, double sim) {
+        try {
+            SET_SIMILARITY.invokeExact(matrix, i, j, sim);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Writes a similarity matrix to a temporary file and memory-maps it.
+     */
+    static Object mapped(Object matrix) {
+        try {
+            Path file = Files.createTempFile("similarities", ".bin");
+            file.toFile().deleteOnExit();
+            WRITE_MATRIX.invokeExact(matrix, file);
+            return (Object) NEW_MAPPED_MATRIX.invokeExact(file);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static double similarity(Object matrix, int i, int j) {
+        try {
+            return (double) STORE_SIMILARITY.invokeExact(matrix, i, j);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+
+//##################### Affinity Function & Clustering ######################
+
+    static AffinityFunction affinityFunction(double alpha, String[] terms, Object matrix, int partsPerCluster) {
+        try {
+            AffinityFunction affinity = (AffinityFunction) NEW_AFFINITY.invokeExact(alpha, (Object[]) terms, matrix);
+            SET_PARTS_PER_CLUSTER.invokeExact(affinity, partsPerCluster);
+            return affinity;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static double similarity(AffinityFunction affinity, Object term1, Object term2) {
+        try {
+            return (double) AFFINITY_SIMILARITY.invokeExact(affinity, term1, term2);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static Object cluster(Object matrix, int[] ids, double alpha) {
+        try {
+            return (Object) RUN_ENGINE.invokeExact((Object) NEW_ENGINE.invokeExact(matrix, ids, alpha));
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+
+//##################### Keys ######################
+
+    static Object illKey(int personID, String disease) {
+        try {
+            return (Object) NEW_ILL_KEY.invokeExact(personID, disease);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static Object infoKey(int id, int affinityPartition) {
+        try {
+            return (Object) NEW_INFO_KEY.invokeExact(id, affinityPartition);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Starts an isolated server node, which is only needed to convert keys to their binary form.
+     */
+    static Ignite startLocalNode() {
+        TcpDiscoveryVmIpFinder ipFinder = new TcpDiscoveryVmIpFinder();
+        ipFinder.setAddresses(Collections.singletonList("127.0.0.1:48500"));
+        TcpDiscoverySpi spi = new TcpDiscoverySpi();
+        spi.setIpFinder(ipFinder);
+        spi.setLocalPort(48500);
+        spi.setLocalPortRange(0);
+
+        IgniteConfiguration cfg = new IgniteConfiguration();
+        cfg.setIgniteInstanceName("bench")
+                .setDiscoverySpi(spi);
+        return Ignition.start(cfg);
+    }
+
+
+//##################### Topologies ######################
+
+    /**
+     * Synthetic cluster nodes, only their ids are meaningful.
+     */
+    static List<ClusterNode> nodes(int count, int offset) {
+        List<ClusterNode> nodes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+            nodes.add(node(new UUID(0, offset + i)));
+        return nodes;
+    }
+
+    private static ClusterNode node(UUID id) {
+        return (ClusterNode) Proxy.newProxyInstance(Fixtures.class.getClassLoader(), new Class<?>[]{ClusterNode.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "id":
+                        case "consistentId":
+                            return id;
+                        case "hashCode":
+                            return id.hashCode();
+                        case "equals":
+                            return proxy == args[0];
+                        case "toString":
+                            return "Node " + id;
+                        default:
+                            Class<?> type = method.getReturnType();
+                            if (type == boolean.class)
+                                return false;
+                            if (type == long.class)
+                                return 0L;
+                            return null;
+                    }
+                });
+    }
+
+    /**
+     * Affinity function context of a synthetic topology.
+     */
+    static AffinityFunctionContext context(List<ClusterNode> nodes, List<List<ClusterNode>> previous, int backups) {
+        return new AffinityFunctionContext() {
+            @Override
+            public List<ClusterNode> previousAssignment(int part) {
+                return previous == null ? null : previous.get(part);
+            }
+
+            @Override
+            public int backups() {
+                return backups;
+            }
+
+            @Override
+            public List<ClusterNode> currentTopologySnapshot() {
+                return nodes;
+            }
+
+            @Override
+            public AffinityTopologyVersion currentTopologyVersion() {
+                return null;
+            }
+
+            @Override
+            public DiscoveryEvent discoveryEvent() {
+                return null;
+            }
+        };
+    }
+
+}
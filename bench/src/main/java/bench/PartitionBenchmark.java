@@ -0,0 +1,119 @@
+package bench;
+
+import org.apache.ignite.Ignite;
+import org.apache.ignite.cache.affinity.AffinityFunction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks {@code MyAffinityFunction.partition(Object)} for {@code IllKey}, {@code InfoKey} and their binary forms,
+ * which Ignite calls on every put, get and rebalance.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xmx2g", "-DIGNITE_QUIET=true", "-DIGNITE_UPDATE_NOTIFIER=false"})
+public class PartitionBenchmark {
+
+    private static final int KEYS = 1 << 12;
+
+    private static final int MASK = KEYS - 1;
+
+    /**
+     * Number of terms of the similarity store outside of the active domain
+     */
+    private static final int OUTER_TERMS = 256;
+
+    @Param({"1000"})
+    private int terms;
+
+    @Param({"1", "16"})
+    private int partitionsPerCluster;
+
+    private AffinityFunction affinity;
+
+    private Ignite ignite;
+
+    private Object[] illKeys;
+
+    private Object[] infoKeys;
+
+    private Object[] binaryIllKeys;
+
+    private Object[] binaryInfoKeys;
+
+    private Object[] outerIllKeys;
+
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        String[] store = Fixtures.terms(terms + OUTER_TERMS);
+        String[] domain = Arrays.copyOf(store, terms);
+        affinity = Fixtures.affinityFunction(0.2, domain, Fixtures.similarities(store, 42), partitionsPerCluster);
+        ignite = Fixtures.startLocalNode();
+
+        Random random = new Random(42);
+        illKeys = new Object[KEYS];
+        infoKeys = new Object[KEYS];
+        binaryIllKeys = new Object[KEYS];
+        binaryInfoKeys = new Object[KEYS];
+        outerIllKeys = new Object[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            int personID = random.nextInt(1_000_000);
+            illKeys[i] = Fixtures.illKey(personID, domain[random.nextInt(domain.length)]);
+            infoKeys[i] = Fixtures.infoKey(personID, affinity.partition(illKeys[i]));
+            binaryIllKeys[i] = ignite.binary().toBinary(illKeys[i]);
+            binaryInfoKeys[i] = ignite.binary().toBinary(infoKeys[i]);
+            outerIllKeys[i] = Fixtures.illKey(personID, store[terms + random.nextInt(OUTER_TERMS)]);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        ignite.close();
+    }
+
+    @Benchmark
+    public int illKey() {
+        return affinity.partition(illKeys[next++ & MASK]);
+    }
+
+    @Benchmark
+    public int infoKey() {
+        return affinity.partition(infoKeys[next++ & MASK]);
+    }
+
+    @Benchmark
+    public int binaryIllKey() {
+        return affinity.partition(binaryIllKeys[next++ & MASK]);
+    }
+
+    @Benchmark
+    public int binaryInfoKey() {
+        return affinity.partition(binaryInfoKeys[next++ & MASK]);
+    }
+
+    @Benchmark
+    public int outerTermIllKey() {
+        return affinity.partition(outerIllKeys[next++ & MASK]);
+    }
+
+}
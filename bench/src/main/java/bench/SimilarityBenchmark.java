@@ -0,0 +1,89 @@
+package bench;
+
+import org.apache.ignite.cache.affinity.AffinityFunction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks similarity lookups, by term ids in the {@code SimilarityMatrix} (in the heap or memory-mapped by
+ * {@code MappedSimilarityMatrix}) and by terms through {@code MyAffinityFunction.similarity(T, T)}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+public class SimilarityBenchmark {
+
+    private static final int PAIRS = 1 << 12;
+
+    private static final int MASK = PAIRS - 1;
+
+    @Param({"1000", "10000"})
+    private int terms;
+
+    @Param({"heap", "mapped"})
+    private String store;
+
+    private Object similarities;
+
+    private AffinityFunction affinity;
+
+    private int[] first;
+
+    private int[] second;
+
+    private String[] firstTerm;
+
+    private String[] secondTerm;
+
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        String[] domain = Fixtures.terms(terms);
+        similarities = Fixtures.similarities(domain, 42);
+        if (store.equals("mapped"))
+            similarities = Fixtures.mapped(similarities);
+        affinity = Fixtures.affinityFunction(0.2, domain, similarities, 1);
+
+        Random random = new Random(42);
+        first = new int[PAIRS];
+        second = new int[PAIRS];
+        firstTerm = new String[PAIRS];
+        secondTerm = new String[PAIRS];
+        for (int i = 0; i < PAIRS; i++) {
+            first[i] = random.nextInt(terms);
+            second[i] = random.nextInt(terms);
+            firstTerm[i] = domain[first[i]];
+            secondTerm[i] = domain[second[i]];
+        }
+    }
+
+    @Benchmark
+    public double byIds() {
+        int i = next++ & MASK;
+        return Fixtures.similarity(similarities, first[i], second[i]);
+    }
+
+    @Benchmark
+    public double byTerms() {
+        int i = next++ & MASK;
+        return Fixtures.similarity(affinity, firstTerm[i], secondTerm[i]);
+    }
+
+}
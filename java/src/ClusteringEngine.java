@@ -0,0 +1,208 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * This class implements the clustering algorithm of the clustering-based fragmentation on dense term indices.
+ * The first term of the active domain is the head of the first cluster. As long as some term has a similarity
+ * to its cluster head below the threshold alpha, the term with the smallest similarity to its head becomes the
+ * head of a new cluster and every term that is at least as similar to the new head as to its current head is moved
+ * to the new cluster.
+ * <p>
+ * The similarity of each term to its current head is cached, s.t. each iteration only computes the similarities to
+ * the new head. The reassignment of the terms is done in parallel with fork-join, and the same tasks reduce their
+ * ranges to the term with the smallest cached similarity, which is the candidate for the next head. Ties are broken
+ * in favour of the term with the smaller index. Each iteration costs O(n) similarity lookups, in total O(k*n) for
+ * k clusters.
+ */
+public class ClusteringEngine {
+
+    /**
+     * Number of terms below which a range of terms is processed sequentially
+     */
+    private static final int SEQUENTIAL_THRESHOLD = 2048;
+
+    /**
+     * Similarities of the terms
+     */
+    private final SimilarityStore similarities;
+
+    /**
+     * Id in {@link #similarities} of each term of the active domain (indexed by the term index)
+     */
+    private final int[] ids;
+
+    /**
+     * Similarity threshold of the clustering
+     */
+    private final double alpha;
+
+    /**
+     * Cluster of each term (indexed by the term index)
+     */
+    private final int[] cluster;
+
+    /**
+     * Cached similarity of each term to the head of its cluster (positive infinity for heads)
+     */
+    private final double[] simToHead;
+
+    /**
+     * Term index of the head of each cluster
+     */
+    private int[] heads;
+
+    /**
+     * Number of clusters
+     */
+    private int size;
+
+
+//##################### Constructors ######################
+
+    /**
+     * Creates a clustering engine for an active domain.
+     *
+     * @param similarities Similarities of the terms
+     * @param ids          Id in the similarity store of each term of the active domain
+     * @param alpha        Similarity threshold of the clustering
+     */
+    public ClusteringEngine(SimilarityStore similarities, int[] ids, double alpha) {
+        if (ids.length == 0)
+            throw new IllegalArgumentException("The active domain is empty.");
+
+        this.similarities = similarities;
+        this.ids = ids;
+        this.alpha = alpha;
+        this.cluster = new int[ids.length];
+        this.simToHead = new double[ids.length];
+        this.heads = new int[16];
+    }
+
+
+//##################### Clustering ######################
+
+    /**
+     * Runs the clustering algorithm.
+     * @return This engine holding the clustering
+     */
+    public ClusteringEngine run() {
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+
+        // Every term is assigned to the first cluster
+        size = 0;
+        Arrays.fill(simToHead, Double.NEGATIVE_INFINITY);
+        int next = pool.invoke(new Reassign(addHead(0), 0, ids.length));
+
+        // Promote the term with the smallest similarity to its head until every term is similar enough
+        while (next >= 0 && simToHead[next] < alpha)
+            next = pool.invoke(new Reassign(addHead(next), 0, ids.length));
+
+        return this;
+    }
+
+    /**
+     * Makes a term the head of a new cluster.
+     * @param term Index of the term
+     * @return Index of the new cluster
+     */
+    private int addHead(int term) {
+        if (size == heads.length)
+            heads = Arrays.copyOf(heads, size * 2);
+        heads[size] = term;
+        cluster[term] = size;
+        simToHead[term] = Double.POSITIVE_INFINITY;
+        return size++;
+    }
+
+
+//##################### Getter ######################
+
+    /**
+     * Gets the number of clusters
+     * @return Number of clusters
+     */
+    public int clusters() {
+        return size;
+    }
+
+    /**
+     * Gets the head of a cluster
+     * @param cluster Index of the cluster
+     * @return Index of the term which is the head of the cluster
+     */
+    public int head(int cluster) {
+        return heads[cluster];
+    }
+
+    /**
+     * Gets the cluster of a term
+     * @param term Index of the term
+     * @return Index of the cluster
+     */
+    public int cluster(int term) {
+        return cluster[term];
+    }
+
+
+//##################### Fork-Join ######################
+
+    /**
+     * Moves all the terms of a range to the new cluster if they are at least as similar to its head as to their
+     * current head. Returns the term of the range with the smallest similarity to its head, or -1 if the range
+     * only contains heads.
+     */
+    private class Reassign extends RecursiveTask<Integer> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int newCluster;
+        private final int from;
+        private final int to;
+
+        Reassign(int newCluster, int from, int to) {
+            this.newCluster = newCluster;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Integer compute() {
+            if (to - from <= SEQUENTIAL_THRESHOLD)
+                return reassign();
+
+            int mid = (from + to) >>> 1;
+            Reassign left = new Reassign(newCluster, from, mid);
+            left.fork();
+            int right = new Reassign(newCluster, mid, to).compute();
+            return argMin(left.join(), right);
+        }
+
+        private int reassign() {
+            int head = ids[heads[newCluster]];
+            int min = -1;
+            for (int t = from; t < to; t++) {
+                if (simToHead[t] == Double.POSITIVE_INFINITY)
+                    continue;
+
+                double sim = similarities.similarity(ids[t], head);
+                if (simToHead[t] <= sim) {
+                    cluster[t] = newCluster;
+                    simToHead[t] = sim;
+                }
+                if (min < 0 || simToHead[t] < simToHead[min])
+                    min = t;
+            }
+            return min;
+        }
+
+        private int argMin(int left, int right) {
+            if (left < 0)
+                return right;
+            if (right < 0 || simToHead[left] <= simToHead[right])
+                return left;
+            return right;
+        }
+    }
+
+}
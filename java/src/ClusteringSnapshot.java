@@ -0,0 +1,289 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * This class is a compact binary snapshot of the clustering of a {@link MyAffinityFunction}. It contains the term
+ * dictionary (the active domain), the cluster of each term, the head of each cluster and the estimated data volume
+ * of each cluster, s.t. an affinity function can be restored without running the clustering algorithm again.
+ * The header contains the inputs of the clustering (alpha, the partitions per cluster, a hash of the terms and a
+ * fingerprint of the similarity store), s.t. a stale snapshot can be detected by
+ * {@link #matches(double, int, String[], long)} and rebuilt.
+ * <p>
+ * Binary format (big endian, version 3):
+ * <pre>
+ * int     magic ("BCLS")
+ * int     version
+ * double  alpha
+ * int     partitions per cluster
+ * int     number of terms n
+ * int     number of clusters k
+ * long    hash of the terms (see {@link #hash(String[])})
+ * long    fingerprint of the similarity store (see {@link MyAffinityFunction#fingerprint(SimilarityStore)})
+ * int[n]  cluster of each term
+ * int[k]  term index of the head of each cluster
+ * double[k] estimated data volume of each cluster
+ * n times: int length, byte[length] UTF-8 encoded term
+ * </pre>
+ */
+public class ClusteringSnapshot {
+
+    /**
+     * Magic number at the start of a snapshot ("BCLS")
+     */
+    private static final int MAGIC = 0x42434C53;
+
+    /**
+     * Current version of the binary format
+     */
+    private static final int VERSION = 3;
+
+    /**
+     * Size of the header in bytes (magic, version, alpha, partitions per cluster, n, k, hash and fingerprint)
+     */
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 4 + 4 + 4 + 8 + 8;
+
+    private final double alpha;
+
+    private final int partsPerCluster;
+
+    private final String[] terms;
+
+    private final int[] termCluster;
+
+    private final int[] heads;
+
+    private final double[] clusterWeights;
+
+    private final long termsHash;
+
+    private final long storeFingerprint;
+
+
+//##################### Constructors ######################
+
+    /**
+     * Creates a snapshot of a clustering.
+     *
+     * @param alpha            Similarity threshold of the clustering
+     * @param partsPerCluster  Number of partitions per cluster
+     * @param terms            Terms of the active domain
+     * @param termCluster      Cluster of each term
+     * @param heads            Term index of the head of each cluster
+     * @param clusterWeights   Estimated data volume of each cluster
+     * @param storeFingerprint Fingerprint of the similarity store the clustering is based on
+     */
+    public ClusteringSnapshot(double alpha, int partsPerCluster, String[] terms, int[] termCluster, int[] heads,
+                              double[] clusterWeights, long storeFingerprint) {
+        if (terms.length != termCluster.length || heads.length != clusterWeights.length)
+            throw new IllegalArgumentException("Inconsistent clustering snapshot.");
+        for (int c : termCluster) {
+            if (c < 0 || c >= heads.length)
+                throw new IllegalArgumentException("Inconsistent clustering snapshot: cluster " + c + " of a term.");
+        }
+        for (int h : heads) {
+            if (h < 0 || h >= terms.length)
+                throw new IllegalArgumentException("Inconsistent clustering snapshot: head " + h + " of a cluster.");
+        }
+        this.alpha = alpha;
+        this.partsPerCluster = partsPerCluster;
+        this.terms = terms;
+        this.termCluster = termCluster;
+        this.heads = heads;
+        this.clusterWeights = clusterWeights;
+        this.termsHash = hash(terms);
+        this.storeFingerprint = storeFingerprint;
+    }
+
+
+//##################### Reading & Writing ######################
+
+    /**
+     * Loads a snapshot from a file by memory-mapping it.
+     * @param file Path of the snapshot
+     * @return The snapshot
+     * @throws IOException If the file can not be read or is not a valid snapshot
+     */
+    public static ClusteringSnapshot load(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return read(buffer);
+        }
+    }
+
+    /**
+     * Reads a snapshot from a buffer, starting at the buffer's position.
+     * @param buffer The buffer
+     * @return The snapshot
+     * @throws IOException If the buffer does not contain a valid snapshot
+     */
+    public static ClusteringSnapshot read(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < 8 || buffer.getInt() != MAGIC)
+            throw new IOException("Not a clustering snapshot.");
+        int version = buffer.getInt();
+        if (version != VERSION)
+            throw new IOException("Unsupported version of the clustering snapshot: " + version);
+        if (buffer.remaining() < HEADER_SIZE - 8)
+            throw new IOException("The header of the clustering snapshot is truncated.");
+
+        double alpha = buffer.getDouble();
+        int partsPerCluster = buffer.getInt();
+        int n = buffer.getInt();
+        int k = buffer.getInt();
+        long termsHash = buffer.getLong();
+        long storeFingerprint = buffer.getLong();
+        if (partsPerCluster < 1 || n < 0 || k < 0 || (n > 0) != (k > 0))
+            throw new IOException("Invalid header of the clustering snapshot: " + partsPerCluster +
+                    " partitions per cluster, " + n + " terms, " + k + " clusters");
+        if (buffer.remaining() < 8L * n + 12L * k)
+            throw new IOException("The clustering snapshot is truncated.");
+
+        int[] termCluster = new int[n];
+        buffer.asIntBuffer().get(termCluster);
+        buffer.position(buffer.position() + 4 * n);
+        int[] heads = new int[k];
+        buffer.asIntBuffer().get(heads);
+        buffer.position(buffer.position() + 4 * k);
+        double[] clusterWeights = new double[k];
+        buffer.asDoubleBuffer().get(clusterWeights);
+        buffer.position(buffer.position() + 8 * k);
+
+        String[] terms = new String[n];
+        byte[] bytes = new byte[64];
+        for (int i = 0; i < n; i++) {
+            int length = buffer.remaining() < 4 ? -1 : buffer.getInt();
+            if (length < 0 || length > buffer.remaining())
+                throw new IOException("The term " + i + " of the clustering snapshot is truncated.");
+            if (length > bytes.length)
+                bytes = new byte[Math.max(length, bytes.length * 2)];
+            buffer.get(bytes, 0, length);
+            terms[i] = new String(bytes, 0, length, StandardCharsets.UTF_8);
+        }
+
+        ClusteringSnapshot snapshot;
+        try {
+            snapshot = new ClusteringSnapshot(alpha, partsPerCluster, terms, termCluster, heads, clusterWeights,
+                    storeFingerprint);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        if (snapshot.termsHash != termsHash)
+            throw new IOException("The terms of the clustering snapshot do not match its hash.");
+        return snapshot;
+    }
+
+    /**
+     * Writes this snapshot to a file.
+     * @param file Path of the snapshot
+     * @throws IOException If the file can not be written
+     */
+    public void write(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = toBuffer();
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+        }
+    }
+
+    /**
+     * Encodes this snapshot in the binary format.
+     * @return Buffer containing the snapshot (position 0, limit at the end of the snapshot)
+     */
+    public ByteBuffer toBuffer() {
+        byte[][] encoded = new byte[terms.length][];
+        long size = HEADER_SIZE + 4L * terms.length + 12L * heads.length;
+        for (int i = 0; i < terms.length; i++) {
+            encoded[i] = terms[i].getBytes(StandardCharsets.UTF_8);
+            size += 4 + encoded[i].length;
+        }
+        if (size > Integer.MAX_VALUE)
+            throw new IllegalStateException("The clustering snapshot is too large: " + size + " bytes");
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) size);
+        buffer.putInt(MAGIC).putInt(VERSION).putDouble(alpha).putInt(partsPerCluster)
+                .putInt(terms.length).putInt(heads.length).putLong(termsHash).putLong(storeFingerprint);
+        for (int c : termCluster)
+            buffer.putInt(c);
+        for (int h : heads)
+            buffer.putInt(h);
+        for (double w : clusterWeights)
+            buffer.putDouble(w);
+        for (byte[] term : encoded)
+            buffer.putInt(term.length).put(term);
+        buffer.flip();
+        return buffer;
+    }
+
+
+//##################### Validation ######################
+
+    /**
+     * Checks whether this snapshot is a clustering of the given inputs, i.e. it is not stale.
+     *
+     * @param alpha            Similarity threshold of the clustering
+     * @param partsPerCluster  Number of partitions per cluster
+     * @param terms            Terms of the active domain (in the order of the clustering)
+     * @param storeFingerprint Fingerprint of the similarity store (0 if it is unknown, which never matches)
+     * @return True if the snapshot was taken from a clustering of these inputs
+     */
+    public boolean matches(double alpha, int partsPerCluster, String[] terms, long storeFingerprint) {
+        return Double.compare(this.alpha, alpha) == 0 && this.partsPerCluster == partsPerCluster
+                && storeFingerprint != 0 && this.storeFingerprint == storeFingerprint
+                && termsHash == hash(terms) && Arrays.equals(this.terms, terms);
+    }
+
+    /**
+     * Computes the hash of the terms of an active domain (64-bit FNV-1a of the UTF-8 encoded terms, each followed by
+     * a zero byte).
+     *
+     * @param terms The terms
+     * @return Hash of the terms
+     */
+    public static long hash(String[] terms) {
+        long hash = 0xcbf29ce484222325L;
+        for (String term : terms) {
+            for (byte b : term.getBytes(StandardCharsets.UTF_8))
+                hash = (hash ^ (b & 0xff)) * 0x100000001b3L;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+
+//##################### Getter ######################
+
+    public double getAlpha() {
+        return alpha;
+    }
+
+    public int getPartitionsPerCluster() {
+        return partsPerCluster;
+    }
+
+    public String[] getTerms() {
+        return terms;
+    }
+
+    public int[] getTermClusters() {
+        return termCluster;
+    }
+
+    public int[] getHeads() {
+        return heads;
+    }
+
+    public double[] getClusterWeights() {
+        return clusterWeights;
+    }
+
+    public long getStoreFingerprint() {
+        return storeFingerprint;
+    }
+
+}
@@ -0,0 +1,212 @@
+import org.apache.ignite.Ignite;
+import org.apache.ignite.IgniteDataStreamer;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.BooleanSupplier;
+
+/**
+ * This class loads {@link Ill} and {@link Info} entries in bulk through an {@link IgniteDataStreamer} per cache.
+ * The streamers collect the entries in batches per node (according to the partitions of {@link MyAffinityFunction})
+ * and send them asynchronously, instead of one synchronous put per entry.
+ * <p>
+ * The {@link InfoKey} replicas of a person (one per partition that stores a disease of the person) are derived on the
+ * client: the partition of each {@link IllKey} is computed by the affinity function and a replica is streamed only if
+ * the partition is new in the {@link PersonPartitionIndex} of the person, s.t. no query of the cluster is needed. As
+ * the streamers do not overwrite existing entries, entries already in the caches are kept (like
+ * {@link org.apache.ignite.IgniteCache#putIfAbsent}).
+ * <p>
+ * The loader is not thread-safe, the entries are complete in the caches after {@link #flush()} or {@link #close()}.
+ * Only {@link #exclusively(int, int, BooleanSupplier)} may be called by other threads (e.g. the
+ * {@link InfoReplicaCleaner}), which is serialized with {@link #add(Ill, String, String)} per pair of person and
+ * partition by a striped lock.
+ */
+public class IgniteBulkLoader implements AutoCloseable {
+
+    /**
+     * Default number of entries per node in a batch
+     */
+    public static final int DFLT_BUFFER_SIZE = 1024;
+
+    /**
+     * Number of locks of the pairs of person and partition (a power of two)
+     */
+    private static final int STRIPES = 64;
+
+    private final IgniteDataStreamer<IllKey, Ill> illStreamer;
+
+    private final IgniteDataStreamer<InfoKey, Info> infoStreamer;
+
+    private final MyAffinityFunction<?> affinity;
+
+    /**
+     * Partitions of the persons whose {@link InfoKey} was already streamed
+     */
+    private final PersonPartitionIndex index;
+
+    /**
+     * Locks of the pairs of person and partition (see {@link #stripe(int, int)})
+     */
+    private final Object[] locks = new Object[STRIPES];
+
+    /**
+     * Stripes with entries which were added since the last flush, i.e. may still be buffered in the streamers
+     */
+    private final AtomicIntegerArray unflushed = new AtomicIntegerArray(STRIPES);
+
+    private long ills;
+
+    private long infos;
+
+
+//##################### Constructors ######################
+
+    /**
+     * Creates a loader for the caches "ill" and "info", which have to be started already.
+     *
+     * @param ignite   The Ignite instance
+     * @param affinity Affinity function of the caches
+     */
+    public IgniteBulkLoader(Ignite ignite, MyAffinityFunction<?> affinity) {
+        this(ignite, "ill", "info", affinity, DFLT_BUFFER_SIZE, new PersonPartitionIndex(affinity.partitions()));
+    }
+
+    /**
+     * Creates a loader for the given caches, which have to be started already.
+     *
+     * @param ignite     The Ignite instance
+     * @param illCache   Name of the cache of the {@link Ill} entries
+     * @param infoCache  Name of the cache of the {@link Info} entries
+     * @param affinity   Affinity function of the caches
+     * @param bufferSize Number of entries per node in a batch
+     * @param index      Index of the partitions of the persons with an {@link Info} replica written by the loader
+     */
+    public IgniteBulkLoader(Ignite ignite, String illCache, String infoCache, MyAffinityFunction<?> affinity,
+                            int bufferSize, PersonPartitionIndex index) {
+        if (bufferSize < 1)
+            throw new IllegalArgumentException("The buffer size has to be positive.");
+
+        this.affinity = affinity;
+        this.index = index;
+        for (int i = 0; i < STRIPES; i++)
+            locks[i] = new Object();
+        this.illStreamer = ignite.dataStreamer(illCache);
+        this.infoStreamer = ignite.dataStreamer(infoCache);
+        illStreamer.perNodeBufferSize(bufferSize);
+        infoStreamer.perNodeBufferSize(bufferSize);
+    }
+
+
+//##################### Loading ######################
+
+    /**
+     * Streams a disease of a person and the person's information to the partition of the disease, if the
+     * information is not in this partition yet.
+     *
+     * @param ill     The disease of a person
+     * @param name    Name of the person
+     * @param address Address of the person
+     */
+    public void add(Ill ill, String name, String address) {
+        IllKey illKey = ill.getKey();
+        int personID = illKey.getPersonID();
+        int partition = affinity.partition(illKey);
+        int stripe = stripe(personID, partition);
+        synchronized (locks[stripe]) {
+            unflushed.set(stripe, 1);
+            illStreamer.addData(illKey, ill);
+            ills++;
+
+            if (index.add(personID, partition)) {
+                InfoKey infoKey = new InfoKey(personID, partition);
+                infoStreamer.addData(infoKey, new Info(infoKey, name, address));
+                infos++;
+            }
+        }
+    }
+
+    /**
+     * Runs a check of a pair of person and partition exclusively of {@link #add(Ill, String, String)} for the same
+     * pair. The entries that may still be buffered in the streamers are flushed first, s.t. the check sees all
+     * entries of the pair which were added before.
+     *
+     * @param personID  ID of the person
+     * @param partition The partition
+     * @param check     The check, e.g. of the remaining {@link Ill} entries of the person on the partition
+     * @return The result of the check
+     */
+    public boolean exclusively(int personID, int partition, BooleanSupplier check) {
+        int stripe = stripe(personID, partition);
+        synchronized (locks[stripe]) {
+            if (unflushed.get(stripe) != 0)
+                flush();
+            return check.getAsBoolean();
+        }
+    }
+
+    /**
+     * Gets the affinity function of the caches
+     * @return The affinity function
+     */
+    public MyAffinityFunction<?> getAffinity() {
+        return affinity;
+    }
+
+    /**
+     * Gets the index of the partitions of the persons with an {@link Info} replica written by this loader
+     * @return The index
+     */
+    public PersonPartitionIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Sends the buffered entries and waits until they are stored.
+     */
+    public void flush() {
+        clearUnflushed();
+        illStreamer.flush();
+        infoStreamer.flush();
+    }
+
+    /**
+     * Gets the number of streamed {@link Ill} entries
+     * @return Number of {@link Ill} entries
+     */
+    public long getIllCount() {
+        return ills;
+    }
+
+    /**
+     * Gets the number of streamed {@link Info} entries (replicas)
+     * @return Number of {@link Info} entries
+     */
+    public long getInfoCount() {
+        return infos;
+    }
+
+    /**
+     * Sends the buffered entries and closes the streamers.
+     */
+    @Override
+    public void close() {
+        clearUnflushed();
+        try {
+            illStreamer.close();
+        } finally {
+            infoStreamer.close();
+        }
+    }
+
+    /**
+     * Marks all stripes as flushed, before the streamers are flushed (an entry added meanwhile marks its stripe again).
+     */
+    private void clearUnflushed() {
+        for (int i = 0; i < STRIPES; i++)
+            unflushed.set(i, 0);
+    }
+
+    private static int stripe(int personID, int partition) {
+        return (personID * 31 + partition) & (STRIPES - 1);
+    }
+
+}
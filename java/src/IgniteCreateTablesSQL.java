@@ -7,11 +7,37 @@ import org.jooq.conf.Settings;
 import org.jooq.conf.StatementType;
 import org.jooq.impl.DSL;
 
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.*;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
 
 public class IgniteCreateTablesSQL {
 
+    /**
+     * Default number of rows per batch of the ingest
+     */
+    private static final int DFLT_BATCH_SIZE = 8192;
+
+    /**
+     * Creates and fills the tables and runs a test query.
+     *
+     * @param args Optional batch size, whether the streaming mode is used ("true" by default, "false" for
+     *             batches) and csv-files of the ILL and INFO rows (see {@link #fillTables})
+     */
     public static void main(String[] args) {
+        int batchSize = args.length > 0 ? Integer.parseInt(args[0]) : DFLT_BATCH_SIZE;
+        boolean streaming = args.length <= 1 || Boolean.parseBoolean(args[1]);
 
         Connection conn = null;
         Statement stmt = null;
@@ -25,9 +51,9 @@ public class IgniteCreateTablesSQL {
             // Create and Fill the tables
             createTables(conn);
             System.out.println("Created tables!");
-            fillTables(conn);
+            fillTables(conn, args, batchSize, streaming);
             System.out.println("Filled tables!");
-        } catch (ClassNotFoundException e) {
+        } catch (ClassNotFoundException | IOException e) {
             e.printStackTrace();
             System.exit(-1);
         } catch (SQLException e) {
@@ -71,77 +97,198 @@ public class IgniteCreateTablesSQL {
 
 
 
-    private static void fillTables(Connection conn) throws SQLException {
-        // Fill tables
-        String insertStmt = "INSERT INTO ILL (PatientID, Diagnosis) VALUES (?, ?)";
-        PreparedStatement prep = null;
+//##################### Ingest ######################
 
-        prep = conn.prepareStatement(insertStmt);
-        prep.setInt(1, 8457);
-        prep.setString(2, "Cough");
-        prep.execute();
+    /**
+     * Fills the tables with some sample rows or with the rows of the csv-files given as arguments.
+     *
+     * @param conn      Connection to the cluster
+     * @param args      Arguments of the main method, the third and fourth are the optional csv-files of the ILL rows
+     *                  ("PatientID|MeshID|Diagnosis") and the INFO rows ("ID|Name|Address")
+     * @param batchSize Number of rows per batch
+     * @param streaming Whether the streaming mode is used
+     */
+    private static void fillTables(Connection conn, String[] args, int batchSize, boolean streaming)
+            throws SQLException, IOException {
+        if (args.length >= 4) {
+            try (CsvRows illRows = csvRows(Paths.get(args[2])); CsvRows infoRows = csvRows(Paths.get(args[3]))) {
+                fillTables(conn, illRows, infoRows, batchSize, streaming);
+            }
+        } else {
+            Iterator<Object[]> illRows = Arrays.asList(
+                    new Object[]{8457, "D003371", "Cough"},
+                    new Object[]{2784, "D007251", "Flu"},
+                    new Object[]{2784, "D001249", "Asthma"},
+                    new Object[]{2784, "D013978", "brokenLeg"},
+                    new Object[]{8765, "D001249", "Asthma"},
+                    new Object[]{1055, "D014469", "brokenArm"}).iterator();
+            Iterator<Object[]> infoRows = Arrays.asList(
+                    new Object[]{8457, "Mary Miller", "New Street 5, 12345 Newtown"},
+                    new Object[]{2784, "Adam Smith", "Main Street 13, 12344 Oldtown"},
+                    new Object[]{8765, "Bert Miller", "New Street 5, 12345 Newtown"},
+                    new Object[]{1055, "Johnny Cage", "Highway 1, 12278 Hightown"}).iterator();
+            fillTables(conn, illRows, infoRows, batchSize, streaming);
+        }
+    }
 
-        prep.setInt(1, 2784);
-        prep.setString(2, "Flu");
-        prep.execute();
+    /**
+     * Fills the tables with the given rows.
+     */
+    private static void fillTables(Connection conn, Iterator<Object[]> illRows, Iterator<Object[]> infoRows,
+                                   int batchSize, boolean streaming) throws SQLException {
+        Map<String, Iterator<Object[]>> tables = new LinkedHashMap<>();
+        tables.put("INSERT INTO ILL (PatientID, MeshID, Diagnosis) VALUES (?, ?, ?)", illRows);
+        tables.put("INSERT INTO INFO (ID, Name, Address) VALUES (?, ?, ?)", infoRows);
+        long start = System.currentTimeMillis();
+        long rows = ingest(conn, tables, batchSize, streaming);
+        System.out.println("Inserted " + rows + " rows in " + (System.currentTimeMillis() - start) + " ms" +
+                (streaming ? " (streaming)." : " (batches)."));
+    }
 
-        prep.setInt(1, 2784);
-        prep.setString(2, "Asthma");
-        prep.execute();
+    /**
+     * Inserts rows into tables in batches. In streaming mode of the thin JDBC driver ("SET STREAMING ON") the rows
+     * are collected by the driver and streamed to the cluster in batches without waiting for each batch, otherwise
+     * each batch is sent by {@link PreparedStatement#executeBatch()} with one round trip.
+     * Note that rows with an existing primary key are skipped in streaming mode, while they fail the batch otherwise.
+     * The streaming mode can only be switched on once per connection (later streams fail with "Data streamer has been
+     * closed" in Ignite 2.6), hence all tables are filled in one call.
+     *
+     * @param conn      Connection to the cluster (thin JDBC driver)
+     * @param tables    Prepared INSERT statements with one parameter per column, mapped to their rows (e.g. from
+     *                  {@link #csvRows(Path)} or a generator)
+     * @param batchSize Number of rows per batch
+     * @param streaming Whether the streaming mode is used
+     * @return Number of inserted rows
+     * @throws SQLException If the rows can not be inserted
+     */
+    public static long ingest(Connection conn, Map<String, Iterator<Object[]>> tables, int batchSize,
+                              boolean streaming) throws SQLException {
+        if (batchSize < 1)
+            throw new IllegalArgumentException("The batch size has to be positive.");
+
+        long count = 0;
+        try (Statement stmt = conn.createStatement()) {
+            if (streaming)
+                stmt.execute("SET STREAMING ON BATCH_SIZE " + batchSize);
+            try {
+                for (Map.Entry<String, Iterator<Object[]>> table : tables.entrySet()) {
+                    try (PreparedStatement prep = conn.prepareStatement(table.getKey())) {
+                        int batch = 0;
+                        Iterator<Object[]> rows = table.getValue();
+                        while (rows.hasNext()) {
+                            Object[] row = rows.next();
+                            for (int i = 0; i < row.length; i++)
+                                prep.setObject(i + 1, row[i]);
+                            count++;
+                            if (streaming) {
+                                prep.executeUpdate();
+                            } else {
+                                prep.addBatch();
+                                if (++batch == batchSize) {
+                                    prep.executeBatch();
+                                    batch = 0;
+                                }
+                            }
+                        }
+                        if (batch > 0)
+                            prep.executeBatch();
+                    }
+                }
+            } finally {
+                // Flushes the streamed rows
+                if (streaming)
+                    stmt.execute("SET STREAMING OFF");
+            }
+        }
+        return count;
+    }
 
-        prep.setInt(1, 2784);
-        prep.setString(2, "brokenLeg");
-        prep.execute();
+    /**
+     * Reads the rows of a csv-file with delimiter '|' lazily. The first column is the id of a patient and is parsed
+     * as integer, the other columns are strings. The rows have to be closed (e.g. by try-with-resources), even if
+     * they are not read to the end.
+     *
+     * @param file Path of the csv-file
+     * @return The rows
+     * @throws IOException If the file can not be opened
+     */
+    public static CsvRows csvRows(Path file) throws IOException {
+        return new CsvRows(Files.newBufferedReader(file, StandardCharsets.UTF_8));
+    }
 
-        prep.setInt(1, 8765);
-        prep.setString(2, "Asthma");
-        prep.execute();
+    /**
+     * Lazily read rows of a csv-file (see {@link #csvRows(Path)}), closing the rows closes the file.
+     */
+    public static class CsvRows implements Iterator<Object[]>, Closeable {
 
-        prep.setInt(1, 1055);
-        prep.setString(2, "brokenArm");
-        prep.execute();
+        private final BufferedReader reader;
 
+        private String line;
 
-        insertStmt = "INSERT INTO INFO (ID, Name, Address) VALUES (?, ?, ?)";
-        prep = conn.prepareStatement(insertStmt);
-        prep.setInt(1, 8457);
-        prep.setString(2, "Mary Miller");
-        prep.setString(3, "New Street 5, 12345 Newtown");
-        prep.execute();
+        CsvRows(BufferedReader reader) throws IOException {
+            this.reader = reader;
+            try {
+                this.line = readLine();
+            } catch (UncheckedIOException e) {
+                reader.close();
+                throw e.getCause();
+            }
+        }
 
-        prep.setInt(1, 2784);
-        prep.setString(2, "Adam Smith");
-        prep.setString(3, "Main Street 13, 12344 Oldtown");
-        prep.execute();
+        @Override
+        public boolean hasNext() {
+            return line != null;
+        }
 
-        prep.setInt(1, 8765);
-        prep.setString(2, "Bert Miller");
-        prep.setString(3, "New Street 5, 12345 Newtown");
-        prep.execute();
+        @Override
+        public Object[] next() {
+            if (line == null)
+                throw new NoSuchElementException();
+            String[] columns = line.split("\\|", -1);
+            Object[] row = new Object[columns.length];
+            row[0] = Integer.parseInt(columns[0]);
+            System.arraycopy(columns, 1, row, 1, columns.length - 1);
+            line = readLine();
+            return row;
+        }
 
-        prep.setInt(1, 1055);
-        prep.setString(2, "Johnny Cage");
-        prep.setString(3, "Highway 1, 12278 Hightown");
-        prep.execute();
+        /**
+         * Reads the next non-empty line.
+         */
+        private String readLine() {
+            try {
+                String next = reader.readLine();
+                while (next != null && next.isEmpty()) {
+                    next = reader.readLine();
+                }
+                return next;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            line = null;
+            reader.close();
+        }
     }
 
     @Nullable
     private static void createTables(Connection conn) throws SQLException {
-        // Statement
-        Statement stmt = conn.createStatement();
-
-        // DROP tables
-        String dropStmt = "DROP TABLE IF EXISTS ILL; DROP TABLE IF EXISTS INFO;";
-        stmt.executeUpdate(dropStmt);
-
-        String createStmt = "CREATE TABLE ILL (PatientID INT, MeshID VARCHAR, Diagnosis VARCHAR, PRIMARY KEY " +
-                "(PatientID, MeshID)) WITH \"backups=0,affinityKey=Diagnosis\"";
-        stmt.executeUpdate(createStmt);
-
-        createStmt = "CREATE TABLE INFO (ID INT PRIMARY KEY, Name VARCHAR, Address VARCHAR) WITH \"backups=0," +
-                "affinityKey=ID\"";
-        stmt.executeUpdate(createStmt);
-
+        try (Statement stmt = conn.createStatement()) {
+            // DROP tables
+            String dropStmt = "DROP TABLE IF EXISTS ILL; DROP TABLE IF EXISTS INFO;";
+            stmt.executeUpdate(dropStmt);
+
+            String createStmt = "CREATE TABLE ILL (PatientID INT, MeshID VARCHAR, Diagnosis VARCHAR, PRIMARY KEY " +
+                    "(PatientID, Diagnosis)) WITH \"backups=0,affinityKey=Diagnosis\"";
+            stmt.executeUpdate(createStmt);
+
+            createStmt = "CREATE TABLE INFO (ID INT PRIMARY KEY, Name VARCHAR, Address VARCHAR) WITH \"backups=0," +
+                    "affinityKey=ID\"";
+            stmt.executeUpdate(createStmt);
+        }
     }
 
     @Nullable
@@ -9,10 +9,11 @@ import org.apache.ignite.configuration.IgniteConfiguration;
 import org.apache.ignite.spi.discovery.tcp.TcpDiscoverySpi;
 import org.apache.ignite.spi.discovery.tcp.ipfinder.vm.TcpDiscoveryVmIpFinder;
 
-import javax.cache.Cache.Entry;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Random;
 
 public class IgniteSetupCachesTest {
 
@@ -20,9 +21,20 @@ public class IgniteSetupCachesTest {
     public static void main(String[] args) {
 
 
-        // Affinity function
+        // Affinity function (restored from the clustering snapshot if it matches the terms, alpha and similarities,
+        // otherwise clustered again)
         String[] terms = {"Asthma", "Cough", "Influenza", "Ulna Fracture", "Tibial Fracture"};      // active domain
-        MyAffinityFunction<String> myAffinityFunction = new MyAffinityFunction<>(0.2, terms);
+        Path snapshot = Paths.get("out", "clustering.bin");
+        MyAffinityFunction<String> myAffinityFunction;
+        SimilarityMatrix similarities;
+        try {
+            similarities = SimilarityMatrix.load(Paths.get("config", "similarities.csv"));
+            myAffinityFunction = MyAffinityFunction.loadOrBuild(snapshot, 0.2, 1, terms, similarities);
+            System.out.println(myAffinityFunction);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
 
         // Cache configurations
 
@@ -66,32 +78,52 @@ public class IgniteSetupCachesTest {
             IgniteCache<InfoKey, Info> cacheInfo = ignite.getOrCreateCache(cacheConfigInfo);
             System.out.format("Created/Got cache [%s]!\n", cacheConfigInfo.getName());
 
-            // Clear caches & put some test data
+            // Share the similarities through the replicated similarity cache (read through a near cache)
+            IgniteSimilarityStore.upload(ignite, similarities, 0);
+            SimilarityStore sharedSimilarities = new IgniteSimilarityStore(ignite);
+            System.out.println("Shared similarity of Asthma and Cough: " + sharedSimilarities.similarity(
+                    sharedSimilarities.id("Asthma"), sharedSimilarities.id("Cough")));
+
+            // Clear caches & stream some test data (the info of a person is replicated to the partitions of its
+            // diseases by the loader)
             cacheIll.clear();
             cacheInfo.clear();
-            for (int i = 0; i < 10; i++) {
-                // Some random disease for a random personID
-                String disease = terms[(new Random()).nextInt(terms.length)];
-                int personID = (new Random()).nextInt(4);
-                IllKey illKey = new IllKey(personID, disease);
-                Ill ill = new Ill(illKey, "diseaseID123");
-                cacheIll.put(illKey, ill);
-                System.out.println("Added: " + ill);
-
-                // Add the info-object to the same partition (if not present yet with another disease of same cluster)
-                int p = myAffinityFunction.partition(illKey);
-                InfoKey infoKey = new InfoKey(personID, p);
-                SqlQuery sql = new SqlQuery(Info.class, "id = ?");
-                List<Entry<InfoKey, Info>> list = cacheInfo.query(sql.setArgs(personID)).getAll();
-                Info info;
-                if (list.size() >= 1)
-                    info = list.get(0).getValue();
-                else
-                    info = new Info(infoKey);
-
-                cacheInfo.putIfAbsent(infoKey, info);
-                System.out.println("Added: " + info);
-
+            PatientGenerator generator = new PatientGenerator(42, terms, 16);
+            try (IgniteBulkLoader loader = new IgniteBulkLoader(ignite, myAffinityFunction)) {
+                for (int personID = 0; personID < 4; personID++) {
+                    // Some diseases (skewed to the first terms) for each personID
+                    PatientGenerator.Patient patient = generator.patient(personID);
+                    for (Ill ill : patient.ills()) {
+                        loader.add(ill, patient.getName(), patient.getAddress());
+                        System.out.println("Added: " + ill);
+                    }
+                }
+                loader.flush();
+                System.out.println("Streamed " + loader.getIllCount() + " ill and " + loader.getInfoCount() +
+                        " info entries.");
+
+                // Test cleaner: the last stored disease of a person on a partition is removed while another disease
+                // of the partition is still buffered in the loader (expected: the replica is kept, as the buffered
+                // disease is flushed before the check; after removing that disease as well, the replica is removed)
+                try (InfoReplicaCleaner cleaner = new InfoReplicaCleaner(cacheIll, cacheInfo, loader)) {
+                    IllKey asthma = new IllKey(100, "Asthma");
+                    IllKey cough = new IllKey(100, "Cough");
+                    int partition = myAffinityFunction.partition(asthma);
+                    InfoKey infoKey = new InfoKey(100, partition);
+                    loader.add(new Ill(asthma, "D001249"), "Test Person", "Test Address");
+                    loader.flush();
+                    loader.add(new Ill(cough, "D003371"), "Test Person", "Test Address");
+                    cacheIll.remove(asthma);
+                    boolean passed = myAffinityFunction.partition(cough) == partition
+                            && !cleaner.check(100, partition) && cacheIll.containsKey(cough)
+                            && cacheInfo.containsKey(infoKey);
+                    cacheIll.remove(cough);
+                    cleaner.check(100, partition);
+                    passed &= cleaner.awaitPending(10000) && !cacheInfo.containsKey(infoKey);
+                    System.out.println("Cleaner test " + (passed ? "passed" : "FAILED"));
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
                 System.out.println("-----------------------------------------------------------------------------");
             }
 
@@ -107,6 +139,14 @@ public class IgniteSetupCachesTest {
                 System.out.println();
             }
 
+            // Relaxed query: Asthma is relaxed to the terms of its cluster, only the cluster's partitions are queried
+            QueryRelaxer.Relaxation relaxation = new QueryRelaxer(myAffinityFunction).relax("Select ill.personid, " +
+                    "ill.disease, info.name from ill, \"info\".info where ill.disease = 'Asthma' and " +
+                    "ill.personid = info.id");
+            System.out.println("Relaxed query: " + relaxation);
+            for (List<?> row : cacheIll.query(relaxation.toQuery(cacheIll)))
+                System.out.println(row);
+
 
         } catch (ClientException e) {
             e.printStackTrace();
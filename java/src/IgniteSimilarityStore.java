@@ -0,0 +1,250 @@
+import org.apache.ignite.Ignite;
+import org.apache.ignite.IgniteCache;
+import org.apache.ignite.IgniteDataStreamer;
+import org.apache.ignite.Ignition;
+import org.apache.ignite.cache.CacheMode;
+import org.apache.ignite.cache.CachePeekMode;
+import org.apache.ignite.cache.eviction.lru.LruEvictionPolicyFactory;
+import org.apache.ignite.configuration.CacheConfiguration;
+import org.apache.ignite.configuration.NearCacheConfiguration;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This class keeps the pairwise similarities in REPLICATED Ignite caches instead of in the heap of each node, s.t.
+ * clients can look up similarities (e.g. for the query relaxation) without loading the matrix and the similarities
+ * can be refreshed by {@link #upload(Ignite, SimilarityStore, double)}.
+ * <p>
+ * The store is meant for lookups on the client side only. It can not back a {@link MyAffinityFunction}, which
+ * rejects it: the affinity function is deserialized and used by Ignite while the caches are started, where blocking
+ * cache operations are not allowed, and a refresh would change the mapping of the keys on some nodes only.
+ * <p>
+ * The cache {@link #CACHE_NAME} maps the packed ids of a pair of terms (see {@link #key(int, int)}) to their
+ * similarity, pairs without an entry have similarity 0. The cache {@link #TERMS_CACHE_NAME} maps the ids to the
+ * terms, the dictionary is read once when the store is connected. On client nodes the similarities are read
+ * through a near cache, which keeps the most recently used pairs (LRU, bounded by the near cache size) and is kept
+ * consistent by Ignite when the similarities are refreshed. Server nodes hold a full copy of the replicated cache.
+ * The near cache of a client is created by the first store or upload on the client, later stores share it.
+ * <p>
+ * Only the near cache size is serialized, on deserialization the store connects to the local Ignite instance.
+ */
+public class IgniteSimilarityStore implements SimilarityStore {
+
+    /**
+     * Name of the cache of the similarities
+     */
+    public static final String CACHE_NAME = "similarities";
+
+    /**
+     * Name of the cache of the term dictionary
+     */
+    public static final String TERMS_CACHE_NAME = "similarityTerms";
+
+    /**
+     * Default maximal number of pairs in the near cache of a client node
+     */
+    private static final int DFLT_NEAR_CACHE_SIZE = 100_000;
+
+    /**
+     * Number of terms read at once from the term dictionary
+     */
+    private static final int BATCH_SIZE = 10_000;
+
+    /**
+     * Maximal number of pairs in the near cache of a client node
+     */
+    private final int nearCacheSize;
+
+    /**
+     * The similarities (through the near cache on client nodes)
+     */
+    private transient IgniteCache<Long, Float> cache;
+
+    /**
+     * Terms of the dictionary indexed by their id
+     */
+    private transient String[] terms;
+
+    /**
+     * Dictionary mapping each term to its id
+     */
+    private transient HashMap<String, Integer> ids;
+
+
+//##################### Constructors ######################
+
+    /**
+     * Connects to the similarity caches with the default near cache size. For details see
+     * {@link IgniteSimilarityStore#IgniteSimilarityStore(Ignite, int)}.
+     *
+     * @param ignite The Ignite instance
+     */
+    public IgniteSimilarityStore(Ignite ignite) {
+        this(ignite, DFLT_NEAR_CACHE_SIZE);
+    }
+
+    /**
+     * Connects to the similarity caches, which have to be filled by {@link #upload(Ignite, SimilarityStore, double)}
+     * before.
+     *
+     * @param ignite        The Ignite instance
+     * @param nearCacheSize Maximal number of pairs in the near cache of a client node
+     */
+    public IgniteSimilarityStore(Ignite ignite, int nearCacheSize) {
+        if (nearCacheSize < 1)
+            throw new IllegalArgumentException("The near cache needs a positive size.");
+        this.nearCacheSize = nearCacheSize;
+        connect(ignite);
+    }
+
+    /**
+     * Gets the caches and reads the term dictionary.
+     */
+    private void connect(Ignite ignite) {
+        if (ignite.cluster().localNode().isClient())
+            cache = ignite.getOrCreateNearCache(CACHE_NAME, nearCacheConfiguration(nearCacheSize));
+        else
+            cache = ignite.cache(CACHE_NAME);
+        IgniteCache<Integer, String> termsCache = ignite.cache(TERMS_CACHE_NAME);
+        if (cache == null || termsCache == null)
+            throw new IllegalStateException("The similarity caches do not exist, upload the similarities first.");
+
+        terms = new String[termsCache.size(CachePeekMode.PRIMARY)];
+        ids = new HashMap<>(terms.length * 2);
+        for (int from = 0; from < terms.length; from += BATCH_SIZE) {
+            Set<Integer> keys = new HashSet<>();
+            for (int id = from; id < Math.min(terms.length, from + BATCH_SIZE); id++)
+                keys.add(id);
+            for (Map.Entry<Integer, String> e : termsCache.getAll(keys).entrySet()) {
+                terms[e.getKey()] = e.getValue();
+                ids.put(e.getValue(), e.getKey());
+            }
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        connect(Ignition.localIgnite());
+    }
+
+
+//##################### Configuration & Upload ######################
+
+    /**
+     * Gets the configuration of the cache of the similarities
+     * @return Cache configuration
+     */
+    public static CacheConfiguration<Long, Float> cacheConfiguration() {
+        CacheConfiguration<Long, Float> cfg = new CacheConfiguration<>(CACHE_NAME);
+        cfg.setCacheMode(CacheMode.REPLICATED);
+        return cfg;
+    }
+
+    /**
+     * Gets the configuration of the cache of the term dictionary
+     * @return Cache configuration
+     */
+    public static CacheConfiguration<Integer, String> termsCacheConfiguration() {
+        CacheConfiguration<Integer, String> cfg = new CacheConfiguration<>(TERMS_CACHE_NAME);
+        cfg.setCacheMode(CacheMode.REPLICATED);
+        return cfg;
+    }
+
+    /**
+     * Gets the configuration of a near cache with LRU eviction
+     * @param size Maximal number of pairs in the near cache
+     * @return Near cache configuration
+     */
+    public static NearCacheConfiguration<Long, Float> nearCacheConfiguration(int size) {
+        NearCacheConfiguration<Long, Float> cfg = new NearCacheConfiguration<>();
+        cfg.setNearEvictionPolicyFactory(new LruEvictionPolicyFactory<>(size));
+        return cfg;
+    }
+
+    /**
+     * Uploads (or refreshes) the similarities of a store into the similarity caches with data streamers. Pairs with
+     * a similarity below the minimum are not stored and have similarity 0 in the cache, e.g. a minimum of alpha
+     * suffices for the query relaxation, while the clustering should see all similarities. On a refresh, pairs that
+     * are no longer stored are removed. The ids of the terms have to be the same as in the previous upload, since
+     * the clients look up the similarities of the terms by their ids in the cache.
+     *
+     * @param ignite        The Ignite instance
+     * @param source        The similarities to upload
+     * @param minSimilarity Minimal similarity of the stored pairs
+     */
+    public static void upload(Ignite ignite, SimilarityStore source, double minSimilarity) {
+        // A client can only read through a near cache if the cache is not started locally without one before
+        IgniteCache<Long, Float> cache = ignite.cluster().localNode().isClient()
+                ? ignite.getOrCreateCache(cacheConfiguration(), nearCacheConfiguration(DFLT_NEAR_CACHE_SIZE))
+                : ignite.getOrCreateCache(cacheConfiguration());
+        IgniteCache<Integer, String> termsCache = ignite.getOrCreateCache(termsCacheConfiguration());
+        boolean refresh = cache.size(CachePeekMode.PRIMARY) > 0;
+        int previousTerms = termsCache.size(CachePeekMode.PRIMARY);
+
+        try (IgniteDataStreamer<Integer, String> streamer = ignite.dataStreamer(TERMS_CACHE_NAME)) {
+            streamer.allowOverwrite(true);
+            for (int id = 0; id < source.size(); id++)
+                streamer.addData(id, source.term(id));
+            for (int id = source.size(); id < previousTerms; id++)
+                streamer.removeData(id);
+        }
+
+        try (IgniteDataStreamer<Long, Float> streamer = ignite.dataStreamer(CACHE_NAME)) {
+            streamer.allowOverwrite(refresh);
+            for (int row = 1; row < source.size(); row++) {
+                for (int col = 0; col < row; col++) {
+                    double sim = source.similarity(row, col);
+                    if (sim > 0 && sim >= minSimilarity)
+                        streamer.addData(key(row, col), (float) sim);
+                    else if (refresh)
+                        streamer.removeData(key(row, col));
+                }
+            }
+        }
+    }
+
+    /**
+     * Packs the ids of a pair of distinct terms into the key of the similarity cache, the larger id in the upper
+     * 32 bits.
+     *
+     * @param id1 Id of the first term
+     * @param id2 Id of the second term
+     * @return Key of the pair
+     */
+    public static long key(int id1, int id2) {
+        return ((long) Math.max(id1, id2) << 32) | Math.min(id1, id2);
+    }
+
+
+//##################### Getter ######################
+
+    @Override
+    public int size() {
+        return terms.length;
+    }
+
+    @Override
+    public int id(Object term) {
+        Integer id = ids.get(term.toString());
+        return id == null ? -1 : id;
+    }
+
+    @Override
+    public String term(int id) {
+        return terms[id];
+    }
+
+    @Override
+    public double similarity(int id1, int id2) {
+        if (id1 == id2)
+            return 1.0;
+        Float sim = cache.get(key(id1, id2));
+        return sim == null ? 0.0 : sim;
+    }
+
+}
@@ -21,6 +21,11 @@ public class Info implements Serializable {
     @QuerySqlField
     private String address;
 
+    /**
+     * Faker per thread for the randomized Info-objects (creating a Faker loads its locale files)
+     */
+    private static final ThreadLocal<Faker> FAKER = ThreadLocal.withInitial(Faker::new);
+
 
 
 //#################### Constructors ####################
@@ -32,7 +37,7 @@ public class Info implements Serializable {
     public Info(InfoKey key) {
         this.key = key;
 
-        Faker faker = new Faker();
+        Faker faker = FAKER.get();
         this.name = faker.name().fullName();
         this.address = faker.address().fullAddress();
     }
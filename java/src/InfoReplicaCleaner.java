@@ -0,0 +1,189 @@
+import org.apache.ignite.IgniteCache;
+import org.apache.ignite.cache.query.ContinuousQuery;
+import org.apache.ignite.cache.query.QueryCursor;
+import org.apache.ignite.cache.query.SqlFieldsQuery;
+
+import javax.cache.Cache;
+import javax.cache.event.CacheEntryEvent;
+import javax.cache.event.EventType;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class removes the orphaned {@link Info} replicas: when the last {@link Ill} entry of a person on a partition is
+ * removed, the replica of the person's {@link Info} on this partition (see {@link InfoKey}) is not needed anymore.
+ * Only the replicas written by an {@link IgniteBulkLoader} are cleaned, i.e. the pairs of person and partition in the
+ * {@link PersonPartitionIndex} of the loader, other replicas are left alone.
+ * <p>
+ * The removed and expired {@link Ill} entries are received by a continuous query on the ill cache (expired entries
+ * are included by {@link ContinuousQuery#setIncludeExpired(boolean)}). For each entry, the remaining {@link Ill}
+ * entries of the person are counted on the partition of the entry only (an SQL query restricted by
+ * {@link SqlFieldsQuery#setPartitions(int...)} on the indexed person's id, each found entry is confirmed by its key),
+ * s.t. the cache is never scanned. If there are none, the replica is removed from the info cache and the partition
+ * from the {@link PersonPartitionIndex}.
+ * A changed disease of an {@link Ill} is a new key, hence the old key is removed and handled in the same way.
+ * <p>
+ * The checks are done by a background thread (cache operations must not block the listener of a continuous query)
+ * and each pair of person and partition is queued only once until it is checked. A check is serialized with the
+ * loader's {@link IgniteBulkLoader#add} of the same person and partition (see
+ * {@link IgniteBulkLoader#exclusively(int, int, java.util.function.BooleanSupplier)}), and the entries still buffered
+ * in the loader's streamers are flushed before the count, s.t. a disease that is added but not yet stored keeps the
+ * replica.
+ * <p>
+ * Clearing or destroying the ill cache (e.g. {@link IgniteCache#clear()}) emits no events of a continuous query and is
+ * out of scope: the info cache and the {@link PersonPartitionIndex} have to be cleared along with it.
+ */
+public class InfoReplicaCleaner implements AutoCloseable {
+
+    private final IgniteCache<IllKey, Ill> illCache;
+
+    private final IgniteCache<InfoKey, Info> infoCache;
+
+    private final IgniteBulkLoader loader;
+
+    private final MyAffinityFunction<?> affinity;
+
+    private final PersonPartitionIndex index;
+
+    /**
+     * Pairs of person and partition (person << 32 | partition) which are queued for a check
+     */
+    private final Set<Long> pending = ConcurrentHashMap.newKeySet();
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "info-replica-cleaner");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final QueryCursor<Cache.Entry<IllKey, Ill>> cursor;
+
+    private final AtomicLong removed = new AtomicLong();
+
+
+//##################### Constructor ######################
+
+    /**
+     * Creates a cleaner, which listens to the removals and expirations of the ill cache until it is closed.
+     *
+     * @param illCache  The ill cache
+     * @param infoCache The info cache
+     * @param loader    The loader of the caches, whose replicas are cleaned
+     */
+    public InfoReplicaCleaner(IgniteCache<IllKey, Ill> illCache, IgniteCache<InfoKey, Info> infoCache,
+                              IgniteBulkLoader loader) {
+        this.illCache = illCache;
+        this.infoCache = infoCache;
+        this.loader = loader;
+        this.affinity = loader.getAffinity();
+        this.index = loader.getIndex();
+
+        ContinuousQuery<IllKey, Ill> query = new ContinuousQuery<>();
+        query.setIncludeExpired(true);
+        query.setLocalListener(events -> {
+            for (CacheEntryEvent<? extends IllKey, ? extends Ill> event : events) {
+                if (event.getEventType() == EventType.REMOVED || event.getEventType() == EventType.EXPIRED)
+                    removed(event.getKey());
+            }
+        });
+        this.cursor = illCache.query(query);
+    }
+
+
+//##################### Cleanup ######################
+
+    /**
+     * Queues the check of the partition of a removed or expired {@link Ill} entry.
+     *
+     * @param key Key of the removed or expired entry
+     */
+    public void removed(IllKey key) {
+        int personID = key.getPersonID();
+        int partition = affinity.partition(key);
+        if (pending.add((long) personID << 32 | partition)) {
+            executor.execute(() -> {
+                pending.remove((long) personID << 32 | partition);
+                check(personID, partition);
+            });
+        }
+    }
+
+    /**
+     * Removes the replica of a person's information from a partition, if the replica was written by the loader and
+     * the person has no disease on the partition anymore.
+     *
+     * @param personID  ID of the person
+     * @param partition The partition
+     * @return True if the replica was removed
+     */
+    public boolean check(int personID, int partition) {
+        return loader.exclusively(personID, partition, () -> {
+            if (!index.contains(personID, partition) || count(personID, partition) > 0)
+                return false;
+
+            // The next disease of the person on the partition creates a new replica
+            index.remove(personID, partition);
+            Info info = infoCache.getAndRemove(new InfoKey(personID, partition));
+            if (info != null)
+                removed.incrementAndGet();
+            return info != null;
+        });
+    }
+
+    /**
+     * Counts the {@link Ill} entries of a person on a partition. An expired entry may still be found by the SQL index
+     * when its event is received, hence each found entry is confirmed by a lookup of its key.
+     */
+    private long count(int personID, int partition) {
+        SqlFieldsQuery query = new SqlFieldsQuery("SELECT disease FROM Ill WHERE personID = ?")
+                .setArgs(personID)
+                .setPartitions(partition);
+        long count = 0;
+        for (List<?> row : illCache.query(query).getAll()) {
+            if (illCache.containsKey(new IllKey(personID, (String) row.get(0))))
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * Gets the number of removed replicas
+     * @return Number of removed replicas
+     */
+    public long getRemovedCount() {
+        return removed.get();
+    }
+
+    /**
+     * Waits until the queued checks are done.
+     *
+     * @param timeout Maximal time to wait in milliseconds
+     * @return True if all checks are done
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public boolean awaitPending(long timeout) throws InterruptedException {
+        try {
+            executor.submit(() -> { }).get(timeout, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (ExecutionException | TimeoutException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Stops listening to the removals and expirations, queued checks are discarded.
+     */
+    @Override
+    public void close() {
+        cursor.close();
+        executor.shutdownNow();
+    }
+
+}
@@ -0,0 +1,128 @@
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+
+/**
+ * This class is a read-only similarity matrix in the binary format of {@link SimilarityMatrix}, which is memory-mapped
+ * instead of read into the heap. Only the terms are kept in the heap, the similarity values are read from the mapped
+ * file and thus shared through the page cache of the OS by all JVMs on a host. Files larger than 2 GB are mapped in
+ * segments of 1 GB, each segment starts at a similarity value, s.t. a value never spans two segments.
+ * <p>
+ * Only the path of the file is serialized, the file is mapped again on deserialization. Hence the file has to exist
+ * under the same path on every node that deserializes the matrix (e.g. as part of a {@link MyAffinityFunction}).
+ */
+public class MappedSimilarityMatrix implements SimilarityStore {
+
+    /**
+     * Number of similarity values per mapped segment as a power of two (2^28 floats = 1 GB)
+     */
+    private static final int SEGMENT_SHIFT = 28;
+
+    private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+
+    /**
+     * Path of the binary file (a string, since paths are not serializable)
+     */
+    private final String file;
+
+    /**
+     * Terms of the matrix indexed by their id
+     */
+    private transient String[] terms;
+
+    /**
+     * Dictionary mapping each term to its id
+     */
+    private transient HashMap<String, Integer> ids;
+
+    /**
+     * Mapped segments of the similarity values
+     */
+    private transient MappedByteBuffer[] segments;
+
+
+//##################### Constructors ######################
+
+    /**
+     * Maps a similarity matrix in the binary format (see {@link SimilarityMatrix}).
+     *
+     * @param file Path of the binary file
+     * @throws IOException If the file can not be read or is not a binary similarity matrix
+     */
+    public MappedSimilarityMatrix(Path file) throws IOException {
+        this.file = file.toString();
+        map();
+    }
+
+    /**
+     * Reads the terms and maps the similarity values of {@link #file}.
+     */
+    private void map() throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+            terms = SimilarityMatrix.readHeader(channel);
+            ids = new HashMap<>(terms.length * 2);
+            for (int i = 0; i < terms.length; i++)
+                ids.put(terms[i], i);
+
+            long start = channel.position();
+            long count = (long) terms.length * (terms.length - 1) / 2;
+            if (channel.size() < start + count * 4)
+                throw new IOException("The binary similarity matrix " + file + " is truncated.");
+
+            // The mappings stay valid after the channel is closed
+            segments = new MappedByteBuffer[(int) ((count + SEGMENT_MASK) >>> SEGMENT_SHIFT)];
+            for (int s = 0; s < segments.length; s++) {
+                long first = (long) s << SEGMENT_SHIFT;
+                long size = Math.min(SEGMENT_MASK + 1, count - first) * 4;
+                segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, start + first * 4, size);
+            }
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        map();
+    }
+
+
+//##################### Getter ######################
+
+    @Override
+    public int size() {
+        return terms.length;
+    }
+
+    @Override
+    public int id(Object term) {
+        Integer id = ids.get(term.toString());
+        return id == null ? -1 : id;
+    }
+
+    @Override
+    public String term(int id) {
+        return terms[id];
+    }
+
+    @Override
+    public double similarity(int id1, int id2) {
+        if (id1 == id2)
+            return 1.0;
+        long offset = SimilarityMatrix.offset(id1, id2);
+        return segments[(int) (offset >>> SEGMENT_SHIFT)].getFloat((int) (offset & SEGMENT_MASK) << 2);
+    }
+
+    /**
+     * Gets the path of the mapped file
+     * @return Path of the binary file
+     */
+    @Override
+    public Path getFile() {
+        return Paths.get(file);
+    }
+
+}
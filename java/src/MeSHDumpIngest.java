@@ -0,0 +1,227 @@
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.riot.system.StreamRDFBase;
+import org.apache.jena.vocabulary.RDF;
+import org.apache.jena.vocabulary.RDFS;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * This class ingests the MeSH descriptors from a local N-Triples dump of MeSH (e.g. mesh.nt or mesh.nt.gz from the
+ * NLM), as an offline alternative to {@link MeSHSPARQL}. The dump is parsed in a single sequential pass by the
+ * streaming parser of Jena and the output is the same csv-file "ID|Name|TreeNumber;TreeNumber;...": descriptors
+ * with an English label and tree numbers of category C, filtered by {@link MeSHFilterOutputStream}. The main method
+ * also writes the descriptors as {@link TermDictionary} while they are ingested.
+ * <p>
+ * The triples of the dump are expected to be grouped by subject (as in the dumps of the NLM), s.t. only the type, the
+ * label and the tree numbers of the current subject are kept. A subject is written as soon as the triples of the next
+ * subject start, if it is typed as meshv:Descriptor. The ingest fails if the triples are not grouped: if a descriptor
+ * or a subject with tree numbers of category C comes back after it was written (the URIs of these subjects are kept,
+ * i.e. the memory grows with the number of descriptors only), or if a descriptor of category C has no English label
+ * (which every descriptor of MeSH has, i.e. the label is in another group).
+ */
+public class MeSHDumpIngest {
+
+    /**
+     * Namespace of the MeSH resources
+     */
+    private static final String MESH = "http://id.nlm.nih.gov/mesh/";
+
+    /**
+     * Type of the descriptors
+     */
+    private static final String DESCRIPTOR = MESH + "vocab#Descriptor";
+
+    /**
+     * Property linking a descriptor to its tree numbers
+     */
+    private static final String TREE_NUMBER = MESH + "vocab#treeNumber";
+
+    /**
+     * Prefix of the tree numbers of category C
+     */
+    private static final String CATEGORY = MESH + "C";
+
+    /**
+     * Size of the read buffer of the dump
+     */
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.out.println("Usage: MeSHDumpIngest <mesh.nt[.gz]>");
+            System.exit(-1);
+        }
+        String separ = File.separator;
+        Path outputFile = Paths.get("out" + separ + "csv" + separ + "mesh.csv");
+        Path dictionary = Paths.get("out" + separ + "csv" + separ + "mesh.dict");
+
+        try {
+            Files.createDirectories(outputFile.getParent());
+            long start = System.currentTimeMillis();
+            TermDictionary.Writer writer = new TermDictionary.Writer();
+            long descriptors = ingest(Paths.get(args[0]), outputFile, writer);
+            writer.write(dictionary);
+            System.out.println("Done! Ingested " + descriptors + " descriptors in " +
+                    (System.currentTimeMillis() - start) + " ms.");
+        } catch (IOException | IllegalArgumentException e) {
+            e.printStackTrace();
+            System.exit(-1);
+        }
+    }
+
+    /**
+     * Ingests the descriptors of a dump into a csv-file.
+     *
+     * @param dump       Path of the N-Triples dump (gzip-compressed if the name ends with ".gz")
+     * @param outputFile Path of the csv-file
+     * @return Number of written descriptors
+     * @throws IOException If the dump can not be read or the csv-file can not be written
+     */
+    public static long ingest(Path dump, Path outputFile) throws IOException {
+        return ingest(dump, outputFile, null);
+    }
+
+    /**
+     * Ingests the descriptors of a dump into a csv-file and adds them to a term dictionary.
+     *
+     * @param dump       Path of the N-Triples dump (gzip-compressed if the name ends with ".gz")
+     * @param outputFile Path of the csv-file
+     * @param dictionary Writer of the dictionary or {@code null}
+     * @return Number of written descriptors
+     * @throws IOException If the dump can not be read or the csv-file can not be written
+     * @throws IllegalArgumentException If the triples of the dump are not grouped by subject
+     */
+    public static long ingest(Path dump, Path outputFile, TermDictionary.Writer dictionary) throws IOException {
+        try (InputStream in = open(dump);
+             MeSHFilterOutputStream out = new MeSHFilterOutputStream(new FileOutputStream(outputFile.toFile()),
+                     dictionary)) {
+            DescriptorCollector collector = new DescriptorCollector(out);
+            try {
+                RDFDataMgr.parse(collector, in, Lang.NTRIPLES);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            return collector.count;
+        }
+    }
+
+    /**
+     * Opens a dump, which is decompressed if its name ends with ".gz".
+     */
+    private static InputStream open(Path dump) throws IOException {
+        InputStream in = new BufferedInputStream(Files.newInputStream(dump), BUFFER_SIZE);
+        if (dump.getFileName().toString().endsWith(".gz"))
+            return new GZIPInputStream(in, BUFFER_SIZE);
+        return in;
+    }
+
+
+    /**
+     * Collects the type, the English label and the tree numbers of category C of the current subject and writes a
+     * descriptor as record "URI|Name@en|TreeNumber;TreeNumber;..." when the next subject starts, which is then
+     * filtered to the csv format.
+     */
+    private static class DescriptorCollector extends StreamRDFBase {
+
+        private final MeSHFilterOutputStream out;
+
+        private final StringBuilder treeNumbers = new StringBuilder();
+
+        /**
+         * URIs of the descriptors and the subjects with tree numbers of category C, which must not come back
+         */
+        private final Set<String> flushed = new HashSet<>();
+
+        private Node subject;
+
+        private boolean descriptor;
+
+        private String label;
+
+        private long count;
+
+        DescriptorCollector(MeSHFilterOutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void triple(Triple triple) {
+            if (!triple.getSubject().equals(subject)) {
+                flush();
+                subject = triple.getSubject();
+                if (subject.isURI() && flushed.contains(subject.getURI()))
+                    throw new IllegalArgumentException("The triples of the dump are not grouped by subject, " +
+                            subject.getURI() + " comes back after its triples ended.");
+            }
+
+            Node predicate = triple.getPredicate();
+            Node object = triple.getObject();
+            if (predicate.equals(RDF.type.asNode())) {
+                if (object.isURI() && object.getURI().equals(DESCRIPTOR))
+                    descriptor = true;
+            } else if (predicate.equals(RDFS.label.asNode())) {
+                if (object.isLiteral() && object.getLiteralLanguage().equalsIgnoreCase("en"))
+                    label = object.getLiteralLexicalForm();
+            } else if (object.isURI() && predicate.getURI().equals(TREE_NUMBER)
+                    && object.getURI().startsWith(CATEGORY)) {
+                if (treeNumbers.length() > 0)
+                    treeNumbers.append(';');
+                treeNumbers.append(object.getURI());
+            }
+        }
+
+        @Override
+        public void finish() {
+            flush();
+        }
+
+        /**
+         * Writes the current subject if it is a descriptor of category C and remembers it if it must not come back.
+         */
+        private void flush() {
+            if (subject != null && subject.isURI() && (descriptor || treeNumbers.length() > 0)) {
+                flushed.add(subject.getURI());
+                if (descriptor && treeNumbers.length() > 0)
+                    write();
+            }
+            descriptor = false;
+            label = null;
+            treeNumbers.setLength(0);
+        }
+
+        /**
+         * Writes the current subject, a descriptor of category C.
+         */
+        private void write() {
+            if (label == null)
+                throw new IllegalArgumentException("The triples of the dump are not grouped by subject, the " +
+                        "descriptor " + subject.getURI() + " has no English label.");
+            try {
+                out.writeString(subject.getURI());
+                out.write('|');
+                out.writeString(label);
+                out.writeString("@en|");
+                out.writeString(treeNumbers);
+                out.write('\n');
+                count++;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+}
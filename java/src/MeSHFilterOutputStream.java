@@ -3,13 +3,68 @@ import org.jetbrains.annotations.NotNull;
 import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
-
+import java.util.Arrays;
+
+/**
+ * This output stream filters the records of the MeSH export before they are given to the underlying output stream.
+ * The input consists of records "Descriptor(as MeSH-URI)|Name|..." terminated by '\n', where MeSH URI's are of the
+ * form "http://id.nlm.nih.gov/mesh/X123456". These URI's are truncated to the ID (--> X123456). Names are followed by
+ * a language-tag, e.g. @en, @de, etc., and only records with @en tag are kept (but the tag is removed). Furthermore,
+ * the quotes ('"' and '\'') in the records are removed.
+ * The output are records in CSV-Format "ID|Name|..." with delimiter '|'.
+ * <p>
+ * The filter is a state machine on the bytes (UTF-8), which keeps the current record in a reused buffer, s.t. records
+ * may be split across several write calls and no objects are allocated per record. The URI prefix and the language
+ * tag are removed as soon as their last byte is appended to the record. The kept records are collected in an output
+ * buffer, which is written to the underlying stream when it is full and on {@link #flush()}.
+ */
 public class MeSHFilterOutputStream extends FilterOutputStream {
 
-    private OutputStream out;
-    private final Charset charset = StandardCharsets.UTF_8;
+    /**
+     * Prefix of the MeSH URI's
+     */
+    private static final byte[] PREFIX = "http://id.nlm.nih.gov/mesh/".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * Language tag of the records to keep
+     */
+    private static final byte[] TAG = "@en".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * Size of the output buffer
+     */
+    private static final int OUTPUT_SIZE = 1 << 16;
+
+    /**
+     * The current record (without the removed bytes)
+     */
+    private byte[] record = new byte[256];
+
+    /**
+     * Length of the current record
+     */
+    private int length;
+
+    /**
+     * Whether the current record contains the language tag
+     */
+    private boolean english;
+
+    /**
+     * Kept records which are not written to the underlying stream yet
+     */
+    private final byte[] output = new byte[OUTPUT_SIZE];
+
+    /**
+     * Number of bytes in the output buffer
+     */
+    private int count;
+
+    /**
+     * Dictionary to which the kept records are added or {@code null}
+     */
+    private final TermDictionary.Writer dictionary;
 
     /**
      * Creates an output stream filter built on top of the specified
@@ -21,40 +76,124 @@ public class MeSHFilterOutputStream extends FilterOutputStream {
      *            created without an underlying stream.
      */
     public MeSHFilterOutputStream(@NotNull OutputStream out) {
+        this(out, null);
+    }
+
+    /**
+     * Creates an output stream filter, which also adds each kept record to a term dictionary.
+     *
+     * @param out        The underlying output stream
+     * @param dictionary Writer of the dictionary or {@code null}
+     */
+    public MeSHFilterOutputStream(@NotNull OutputStream out, TermDictionary.Writer dictionary) {
         super(out);
-        this.out = out;
+        this.dictionary = dictionary;
     }
 
     /**
-     * This method transforms the input String as follows:
-     * The input should be "Descriptor(as MeSH-URI)|Name" where MeSH URI's are
-     * of the form "http://id.nlm.nih.gov/mesh/X123456". These URI's are
-     * truncated to the ID (--> X123456). Names are followed by a language-tag,
-     * e.g. @en, @de, etc., and only inputs with @en tag are kept (but the tag
-     * is removed). Furthermore, some unnecessary quotes in the names are
-     * removed.
-     * The output is a String in CSV-Format "ID|Name" with delimiter '|'.
+     * Processes one byte of the input: quotes are dropped, a record is completed by '\n' and all other bytes are
+     * appended to the current record, followed by the removal of a completed URI prefix or language tag.
      *
-     * @param input The input data to be filtered
-     * @return The filtered output
-     */
-    private String filterOutput(@NotNull String input) {
-        String output = "";
-        if (input.contains("@en")) {
-            // Truncate the URI, replace quotes, replace language-tag
-            final String prefix = "http://id.nlm.nih.gov/mesh/";
-            output = input.replace(prefix, "")
-                    .replaceAll("\"", "")
-                    .replaceAll("'", "")
-                    .replaceAll("@en", "");
+     * @param b The input byte
+     * @throws IOException If the underlying stream can not be written
+     */
+    private void filter(byte b) throws IOException {
+        switch (b) {
+            case '"':
+            case '\'':
+                return;
+            case '\n':
+                endRecord();
+                return;
+            default:
+                if (length == record.length)
+                    record = Arrays.copyOf(record, length * 2);
+                record[length++] = b;
+                if (b == PREFIX[PREFIX.length - 1] && endsWith(PREFIX)) {
+                    length -= PREFIX.length;
+                } else if (b == TAG[TAG.length - 1] && endsWith(TAG)) {
+                    length -= TAG.length;
+                    english = true;
+                }
+        }
+    }
+
+    /**
+     * Checks whether the current record ends with the given bytes.
+     */
+    private boolean endsWith(byte[] pattern) {
+        if (length < pattern.length)
+            return false;
+        for (int i = 0, j = length - pattern.length; i < pattern.length; i++, j++) {
+            if (record[j] != pattern[i])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Completes the current record: it is copied to the output buffer (with a terminating '\n') and added to the
+     * dictionary if it has the language tag, otherwise it is dropped.
+     */
+    private void endRecord() throws IOException {
+        if (english) {
+            if (dictionary != null)
+                dictionary.addRecord(record, 0, length);
+            if (count + length + 1 > output.length)
+                flushOutput();
+            if (length + 1 > output.length) {
+                out.write(record, 0, length);
+                out.write('\n');
+            } else {
+                System.arraycopy(record, 0, output, count, length);
+                count += length;
+                output[count++] = '\n';
+            }
+        }
+        length = 0;
+        english = false;
+    }
+
+    /**
+     * Writes the output buffer to the underlying stream.
+     */
+    private void flushOutput() throws IOException {
+        if (count > 0) {
+            out.write(output, 0, count);
+            count = 0;
         }
-        return output;
     }
 
 
-    public void writeString(String s) throws IOException {
-        byte[] b = this.filterOutput(s).getBytes(this.charset);
-        out.write(b);
+    /**
+     * Filters a string, which is encoded by UTF-8 (without creating a byte array).
+     *
+     * @param s The input string
+     * @throws IOException If the underlying stream can not be written
+     */
+    public void writeString(CharSequence s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            int c = s.charAt(i);
+            if (c < 0x80) {
+                filter((byte) c);
+            } else if (c < 0x800) {
+                filter((byte) (0xC0 | (c >> 6)));
+                filter((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate((char) c) && i + 1 < s.length()
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint((char) c, s.charAt(++i));
+                filter((byte) (0xF0 | (cp >> 18)));
+                filter((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                filter((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                filter((byte) (0x80 | (cp & 0x3F)));
+            } else {
+                if (Character.isSurrogate((char) c))
+                    c = '?';
+                filter((byte) (0xE0 | (c >> 12)));
+                filter((byte) (0x80 | ((c >> 6) & 0x3F)));
+                filter((byte) (0x80 | (c & 0x3F)));
+            }
+        }
     }
 
 
@@ -62,42 +201,52 @@ public class MeSHFilterOutputStream extends FilterOutputStream {
 
     @Override
     public void write(int b) throws IOException {
-        super.write(b);
+        filter((byte) b);
     }
 
     /**
-     * This method should be used to filter the output before it is given to the underlying
-     * OutputStream. For the filtering details see {@link #filterOutput(String)}. The input
-     * byte array is decoded by {@link java.nio.charset.StandardCharsets#UTF_8}.
+     * This method filters the output before it is given to the underlying OutputStream. For the filtering details
+     * see {@link MeSHFilterOutputStream}. The input bytes are expected to be encoded by
+     * {@link java.nio.charset.StandardCharsets#UTF_8}.
      *
      * @param b The input byte[]
      * @throws IOException
      */
     @Override
     public void write(@NotNull byte[] b) throws IOException {
-        String s = new String(b, charset);
-        String output = this.filterOutput(s);
-        this.out.write(output.getBytes(charset));
+        write(b, 0, b.length);
     }
 
     @Override
     public void write(@NotNull byte[] b, int off, int len) throws IOException {
-        System.out.println("b,off,len: " + (new String(b, StandardCharsets.UTF_8)) + "," + off + "," + len);
-        // Copy the byte array data and write with this.write(byte[])
-        byte[] bslice = new byte[len];
-        for (int i = 0; i < len; i++)
-            bslice[i] = b[off + i];
-        this.write(b);
+        if (off < 0 || len < 0 || off + len > b.length)
+            throw new IndexOutOfBoundsException();
+        for (int i = off; i < off + len; i++)
+            filter(b[i]);
     }
 
+    /**
+     * Completes a pending record without a terminating '\n' and closes the underlying stream.
+     *
+     * @throws IOException
+     */
     @Override
     public void close() throws IOException {
-        this.out.close();
+        if (length > 0)
+            endRecord();
+        super.close();
     }
 
+    /**
+     * Writes all completed records to the underlying stream and flushes it. A pending incomplete record is kept,
+     * s.t. it can be completed by the following writes.
+     *
+     * @throws IOException
+     */
     @Override
     public void flush() throws IOException {
-        this.out.flush();
+        flushOutput();
+        out.flush();
     }
 
 
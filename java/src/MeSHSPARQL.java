@@ -1,84 +1,313 @@
+import org.apache.jena.query.Dataset;
 import org.apache.jena.query.Query;
+import org.apache.jena.query.QueryExecution;
+import org.apache.jena.query.QueryExecutionFactory;
 import org.apache.jena.query.QueryFactory;
 import org.apache.jena.query.QuerySolution;
 import org.apache.jena.query.ResultSet;
 import org.apache.jena.sparql.engine.http.QueryEngineHTTP;
 
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+/**
+ * This class fetches the MeSH descriptors of category C with their names and tree numbers and writes them as csv-file
+ * "ID|Name|TreeNumber;TreeNumber;..." (filtered by {@link MeSHFilterOutputStream}).
+ * <p>
+ * The result is fetched in pages of 1000 records (the maximal limit of the MeSH endpoint) by a {@link PageFetcher},
+ * either from a SPARQL endpoint over HTTP or from a local dataset. Several pages are fetched concurrently, while
+ * the pages are written in order: a bounded queue holds the futures of the next pages in the order of their offsets.
+ * After each written page, the offset of the next page and the length of the csv-file are saved in a checkpoint
+ * file, s.t. an interrupted fetch resumes at the next page. The checkpoint is deleted when the fetch is complete.
+ */
 public class MeSHSPARQL {
 
+    /**
+     * Default SPARQL endpoint of MeSH
+     */
+    private static final String DFLT_ENDPOINT = "http://id.nlm.nih.gov/mesh/sparql";
+
+    /**
+     * Number of records per page (max. limit of the MeSH endpoint is 1000)
+     */
+    private static final int PAGE_SIZE = 1000;
+
+    /**
+     * Default number of pages fetched concurrently
+     */
+    private static final int DFLT_PARALLELISM = 4;
+
+    /**
+     * Number of attempts to fetch a page
+     */
+    private static final int MAX_ATTEMPTS = 3;
+
+    /**
+     * Query of the descriptors of category C with their names and tree numbers
+     */
+    private static final String QUERY = "PREFIX rdf: <http://www.w3.org/1999/02/22-rdf-syntax-ns#> " +
+            "PREFIX rdfs: <http://www.w3.org/2000/01/rdf-schema#> " +
+            "PREFIX xsd: <http://www.w3.org/2001/XMLSchema#> " +
+            "PREFIX owl: <http://www.w3.org/2002/07/owl#> " +
+            "PREFIX meshv: <http://id.nlm.nih.gov/mesh/vocab#> " +
+            "PREFIX mesh: <http://id.nlm.nih.gov/mesh/> " +
+            "PREFIX mesh2015: <http://id.nlm.nih.gov/mesh/2015/> " +
+            "PREFIX mesh2016: <http://id.nlm.nih.gov/mesh/2016/> " +
+            "PREFIX mesh2017: <http://id.nlm.nih.gov/mesh/2017/> " +
+            "SELECT ?d ?name (GROUP_CONCAT(DISTINCT ?tn; separator=\";\") AS ?tns) " +
+            "FROM <http://id.nlm.nih.gov/mesh> " +
+            "WHERE { " +
+            "?d a meshv:Descriptor . " +
+            "?d rdfs:label ?name . " +
+            "?d meshv:treeNumber ?tn . " +
+            "FILTER(STRSTARTS(STR(?tn), STR(mesh:C))) " +
+            "} " +
+            "GROUP BY ?d ?name " +
+            "ORDER BY ?d ";
+
+    /**
+     * Fetches the descriptors from the MeSH endpoint (or the endpoint given as first argument) into
+     * out/csv/mesh.csv, an interrupted fetch is resumed. The descriptors are also written as {@link TermDictionary}
+     * out/csv/mesh.dict while they are fetched.
+     *
+     * @param args Optional URL of the SPARQL endpoint and number of pages fetched concurrently
+     */
     public static void main(String[] args) {
+        String endpoint = args.length > 0 ? args[0] : DFLT_ENDPOINT;
+        int parallelism = args.length > 1 ? Integer.parseInt(args[1]) : DFLT_PARALLELISM;
+        String separ = File.separator;
+        Path outputFile = Paths.get("out" + separ + "csv" + separ + "mesh.csv");
+        Path checkpoint = Paths.get("out" + separ + "csv" + separ + "mesh.checkpoint");
+        Path dictionary = Paths.get("out" + separ + "csv" + separ + "mesh.dict");
 
-        // Setup filtered OutputStream to CSV-File
-        FileOutputStream fileos = null;
         try {
-            String separ = File.separator;
-            String outputFile = "out" + separ + "csv" + separ + "mesh.csv";
-            fileos = new FileOutputStream(outputFile);
-        } catch (FileNotFoundException e) {
+            Files.createDirectories(outputFile.getParent());
+            TermDictionary.Writer writer = new TermDictionary.Writer();
+            long records = fetch(new HttpFetcher(endpoint), outputFile, checkpoint, parallelism, writer);
+            int descriptors = writer.write(dictionary);
+            System.out.println("Done! Fetched " + records + " records, " + descriptors + " descriptors in the dictionary.");
+        } catch (IOException e) {
             e.printStackTrace();
             System.exit(-1);
         }
-        MeSHFilterOutputStream filteros = new MeSHFilterOutputStream(fileos);
-
-        // Query
-        String s = "PREFIX rdf: <http://www.w3.org/1999/02/22-rdf-syntax-ns#> " +
-                "PREFIX rdfs: <http://www.w3.org/2000/01/rdf-schema#> " +
-                "PREFIX xsd: <http://www.w3.org/2001/XMLSchema#> " +
-                "PREFIX owl: <http://www.w3.org/2002/07/owl#> " +
-                "PREFIX meshv: <http://id.nlm.nih.gov/mesh/vocab#> " +
-                "PREFIX mesh: <http://id.nlm.nih.gov/mesh/> " +
-                "PREFIX mesh2015: <http://id.nlm.nih.gov/mesh/2015/> " +
-                "PREFIX mesh2016: <http://id.nlm.nih.gov/mesh/2016/> " +
-                "PREFIX mesh2017: <http://id.nlm.nih.gov/mesh/2017/> " +
-                "SELECT DISTINCT ?d ?name " +
-                "FROM <http://id.nlm.nih.gov/mesh> " +
-                "WHERE { " +
-                "?d a meshv:Descriptor . " +
-                "?d rdfs:label ?name . " +
-                "?d meshv:treeNumber ?tn . " +
-                "FILTER(REGEX(?tn,'C')) " +
-                "} " +
-                "ORDER BY ?d ";
-
-        // Execute the query multiple times with an offset (max. limit is only 1000) and write result to csv
-        Query query = QueryFactory.create(s);
-        for (int offset = 0; ; offset += 1000) {
-
-            // Setup query engine
-            QueryEngineHTTP qe = new QueryEngineHTTP("http://id.nlm.nih.gov/mesh/sparql", query);
-            qe.addParam("inference", "true");
-            qe.addParam("year", "current");
-            //qe.addParam("limit", "1000");       // Limit of 1000 is max value and default --> use offset
-            qe.addParam("offset", offset + "");
-
-            // Execute the query with the current offset & process the results
-            ResultSet results = qe.execSelect();
-            if (!results.hasNext()) {   // Empty?
-                break;
-            }
-            while (results.hasNext()) {
-                QuerySolution nextSol = results.next();
-                try {
-                    filteros.writeString(nextSol.get("d") + "|" + nextSol.get("name") + "\n");
-                } catch (IOException e) {
-                    e.printStackTrace();
+    }
+
+
+//##################### Fetching ######################
+
+    /**
+     * Fetches all pages of the query and writes them in order to a csv-file through a {@link MeSHFilterOutputStream}.
+     * If the checkpoint file exists, the fetch is resumed at the saved offset (the csv-file is truncated to the saved
+     * length, in case the last page was written without the checkpoint), otherwise the csv-file is overwritten.
+     *
+     * @param fetcher     Fetcher of the pages
+     * @param outputFile  Path of the csv-file
+     * @param checkpoint  Path of the checkpoint file
+     * @param parallelism Number of pages fetched concurrently
+     * @return Number of records fetched in this run (before filtering)
+     * @throws IOException If a page can not be fetched or the files can not be written
+     */
+    public static long fetch(PageFetcher fetcher, Path outputFile, Path checkpoint, int parallelism)
+            throws IOException {
+        return fetch(fetcher, outputFile, checkpoint, parallelism, null);
+    }
+
+    /**
+     * Fetches all pages of the query into a csv-file (see {@link #fetch(PageFetcher, Path, Path, int)}) and adds
+     * the written descriptors to a term dictionary. If the fetch is resumed, the descriptors which were written before
+     * the checkpoint are read from the csv-file.
+     *
+     * @param fetcher     Fetcher of the pages
+     * @param outputFile  Path of the csv-file
+     * @param checkpoint  Path of the checkpoint file
+     * @param parallelism Number of pages fetched concurrently
+     * @param dictionary  Writer of the dictionary or {@code null}
+     * @return Number of records fetched in this run (before filtering)
+     * @throws IOException If a page can not be fetched or the files can not be written
+     */
+    public static long fetch(PageFetcher fetcher, Path outputFile, Path checkpoint, int parallelism,
+                             TermDictionary.Writer dictionary) throws IOException {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("At least one page has to be fetched at once.");
+
+        // Resume at the checkpoint
+        long offset = 0;
+        long length = 0;
+        if (Files.exists(checkpoint) && Files.exists(outputFile)) {
+            String[] saved = new String(Files.readAllBytes(checkpoint), StandardCharsets.UTF_8).trim().split(" ");
+            offset = Long.parseLong(saved[0]);
+            length = Long.parseLong(saved[1]);
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(parallelism);
+        ArrayDeque<Future<List<String>>> pages = new ArrayDeque<>(parallelism * 2);
+        long records = 0;
+        try (FileOutputStream fileos = new FileOutputStream(outputFile.toFile(), length > 0);
+             MeSHFilterOutputStream filteros = new MeSHFilterOutputStream(fileos, dictionary)) {
+            fileos.getChannel().truncate(length);
+            if (dictionary != null && length > 0)
+                dictionary.addCsv(outputFile);
+
+            long next = offset;
+            while (true) {
+                // Keep the queue of pending pages filled
+                while (pages.size() < parallelism * 2) {
+                    long pageOffset = next;
+                    pages.add(pool.submit(() -> fetchPage(fetcher, pageOffset)));
+                    next += fetcher.pageSize();
+                }
+
+                // Write the next page in order
+                List<String> page = take(pages.poll());
+                for (String record : page) {
+                    filteros.writeString(record);
+                    filteros.write('\n');
                 }
+                filteros.flush();
+                records += page.size();
+                offset += fetcher.pageSize();
+                if (page.size() < fetcher.pageSize())
+                    break;
+                saveCheckpoint(checkpoint, offset, fileos.getChannel().position());
             }
+        } finally {
+            for (Future<List<String>> page : pages)
+                page.cancel(true);
+            pool.shutdownNow();
+        }
+
+        Files.deleteIfExists(checkpoint);
+        return records;
+    }
 
-            // Flush
+    /**
+     * Fetches a page, a failed attempt is repeated after a short delay.
+     */
+    private static List<String> fetchPage(PageFetcher fetcher, long offset) throws Exception {
+        for (int attempt = 1; ; attempt++) {
             try {
-                filteros.flush();
-            } catch (IOException e) {
-                e.printStackTrace();
+                return fetcher.fetch(offset);
+            } catch (Exception e) {
+                if (attempt == MAX_ATTEMPTS)
+                    throw e;
+                Thread.sleep(1000L * attempt);
             }
         }
+    }
+
+    /**
+     * Waits for a fetched page.
+     */
+    private static List<String> take(Future<List<String>> page) throws IOException {
+        try {
+            return page.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while fetching the pages.", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Could not fetch a page.", e.getCause());
+        }
+    }
 
-        System.out.println("Done!");
+    /**
+     * Saves the offset of the next page and the length of the csv-file, the checkpoint file is replaced atomically.
+     */
+    private static void saveCheckpoint(Path checkpoint, long offset, long length) throws IOException {
+        Path tmp = checkpoint.resolveSibling(checkpoint.getFileName() + ".tmp");
+        Files.write(tmp, (offset + " " + length).getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Formats a result row as record "Descriptor|Name|TreeNumbers".
+     */
+    private static String record(QuerySolution solution) {
+        return solution.get("d") + "|" + solution.get("name") + "|" + solution.get("tns");
+    }
+
+    /**
+     * Reads all rows of a result set.
+     */
+    private static List<String> records(ResultSet results) {
+        List<String> records = new ArrayList<>(PAGE_SIZE);
+        while (results.hasNext())
+            records.add(record(results.next()));
+        return records;
+    }
+
+
+//##################### Page Fetchers ######################
+
+    /**
+     * Fetches the pages from a SPARQL endpoint over HTTP, the offset is passed as parameter of the MeSH endpoint.
+     */
+    public static class HttpFetcher implements PageFetcher {
+
+        private final String endpoint;
+
+        private final Query query = QueryFactory.create(QUERY);
+
+        public HttpFetcher(String endpoint) {
+            this.endpoint = endpoint;
+        }
+
+        @Override
+        public int pageSize() {
+            return PAGE_SIZE;
+        }
+
+        @Override
+        public List<String> fetch(long offset) {
+            try (QueryEngineHTTP qe = new QueryEngineHTTP(endpoint, query)) {
+                qe.addParam("inference", "true");
+                qe.addParam("year", "current");
+                //qe.addParam("limit", "1000");       // Limit of 1000 is max value and default --> use offset
+                qe.addParam("offset", offset + "");
+                return records(qe.execSelect());
+            }
+        }
+    }
+
+    /**
+     * Fetches the pages from a local dataset (e.g. in tests), the pages are selected by LIMIT and OFFSET. The query
+     * is evaluated on the default graph of the dataset instead of the MeSH graph.
+     */
+    public static class DatasetFetcher implements PageFetcher {
+
+        private final Dataset dataset;
+
+        public DatasetFetcher(Dataset dataset) {
+            this.dataset = dataset;
+        }
+
+        @Override
+        public int pageSize() {
+            return PAGE_SIZE;
+        }
+
+        @Override
+        public List<String> fetch(long offset) {
+            Query query = QueryFactory.create(QUERY);
+            query.getGraphURIs().clear();
+            query.setOffset(offset);
+            query.setLimit(PAGE_SIZE);
+            try (QueryExecution qe = QueryExecutionFactory.create(query, dataset)) {
+                return records(qe.execSelect());
+            }
+        }
     }
 
 }
@@ -0,0 +1,130 @@
+import org.apache.jena.query.Dataset;
+import org.apache.jena.query.DatasetFactory;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.Property;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.vocabulary.RDF;
+import org.apache.jena.vocabulary.RDFS;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+public class MeSHSPARQLTest {
+
+    /**
+     * Number of descriptors of the test dataset (with two names each, i.e. five full pages of records)
+     */
+    private static final int DESCRIPTORS = 2500;
+
+
+    public static void main(String[] args) {
+
+        // Small in-memory MeSH dataset: descriptors of category C with an English and a German name, one with a tree
+        // number of category D only, which is not fetched
+        String mesh = "http://id.nlm.nih.gov/mesh/";
+        Dataset dataset = DatasetFactory.create();
+        Model model = dataset.getDefaultModel();
+        Resource descriptorType = model.createResource(mesh + "vocab#Descriptor");
+        Property treeNumber = model.createProperty(mesh + "vocab#treeNumber");
+        for (int i = 0; i < DESCRIPTORS; i++) {
+            Resource descriptor = model.createResource(mesh + String.format("D%06d", i));
+            descriptor.addProperty(RDF.type, descriptorType)
+                    .addProperty(RDFS.label, model.createLiteral("Disease " + i, "en"))
+                    .addProperty(RDFS.label, model.createLiteral("Krankheit " + i, "de"))
+                    .addProperty(treeNumber, model.createResource(mesh + String.format("C%02d.%03d", i % 26, i)));
+        }
+        model.createResource(mesh + "D999999")
+                .addProperty(RDF.type, descriptorType)
+                .addProperty(RDFS.label, model.createLiteral("Chemical", "en"))
+                .addProperty(treeNumber, model.createResource(mesh + "D01.001"));
+
+        Path dir = null;
+        try {
+            dir = Files.createTempDirectory("mesh");
+            MeSHSPARQL.DatasetFetcher fetcher = new MeSHSPARQL.DatasetFetcher(dataset);
+
+            // Test paging (expected: all descriptors of category C, English names only)
+            Path complete = dir.resolve("complete.csv");
+            long records = MeSHSPARQL.fetch(fetcher, complete, dir.resolve("complete.checkpoint"), 2);
+            List<String> lines = Files.readAllLines(complete);
+            System.out.println("Fetched " + records + " records, " + lines.size() + " lines, first: " + lines.get(0));
+            boolean passed = records == 2 * DESCRIPTORS && lines.size() == DESCRIPTORS
+                    && lines.get(0).equals("D000000|Disease 0|C00.000")
+                    && lines.get(DESCRIPTORS - 1).equals(String.format("D%06d|Disease %d|C%02d.%03d",
+                    DESCRIPTORS - 1, DESCRIPTORS - 1, (DESCRIPTORS - 1) % 26, DESCRIPTORS - 1))
+                    && !Files.exists(dir.resolve("complete.checkpoint"));
+            System.out.println("Paging test " + (passed ? "passed" : "FAILED"));
+
+            // Test resume: the third page fails on the first run, the second run resumes at the checkpoint (expected:
+            // the same file, the second run only fetches the pages from the third one on)
+            Path resumed = dir.resolve("resumed.csv");
+            Path checkpoint = dir.resolve("resumed.checkpoint");
+            AtomicBoolean fail = new AtomicBoolean(true);
+            PageFetcher failing = new PageFetcher() {
+                @Override
+                public int pageSize() {
+                    return fetcher.pageSize();
+                }
+
+                @Override
+                public List<String> fetch(long offset) throws Exception {
+                    if (fail.get() && offset >= 2L * fetcher.pageSize())
+                        throw new IOException("Connection lost at offset " + offset);
+                    return fetcher.fetch(offset);
+                }
+            };
+            try {
+                MeSHSPARQL.fetch(failing, resumed, checkpoint, 2);
+                System.out.println("Interrupted fetch did not fail");
+            } catch (IOException e) {
+                System.out.println("Interrupted fetch: " + e.getMessage() + ", checkpoint: " +
+                        new String(Files.readAllBytes(checkpoint)));
+            }
+            passed = Files.exists(checkpoint);
+            fail.set(false);
+            TermDictionary.Writer writer = new TermDictionary.Writer();
+            records = MeSHSPARQL.fetch(failing, resumed, checkpoint, 2, writer);
+            System.out.println("Resumed fetch: " + records + " records");
+            passed &= records == 2 * DESCRIPTORS - 2L * fetcher.pageSize()
+                    && Arrays.equals(Files.readAllBytes(resumed), Files.readAllBytes(complete))
+                    && !Files.exists(checkpoint);
+            System.out.println("Resume test " + (passed ? "passed" : "FAILED"));
+
+            // Test dictionary of the resumed fetch (expected: all descriptors, the same as converted from the csv-file)
+            Path dictionary = dir.resolve("resumed.dict");
+            Path converted = dir.resolve("converted.dict");
+            int descriptors = writer.write(dictionary);
+            TermDictionary.fromCsv(complete, converted);
+            TermDictionary terms = TermDictionary.open(dictionary);
+            System.out.println("Dictionary: " + descriptors + " descriptors, D000042: " +
+                    terms.name(terms.indexOfId("D000042")));
+            passed = descriptors == DESCRIPTORS && terms.name(terms.indexOfId("D000042")).equals("Disease 42")
+                    && Arrays.equals(Files.readAllBytes(dictionary), Files.readAllBytes(converted));
+            System.out.println("Dictionary test " + (passed ? "passed" : "FAILED"));
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            if (dir != null)
+                delete(dir);
+        }
+    }
+
+    /**
+     * Deletes a directory with the files in it.
+     * @param dir The directory
+     */
+    private static void delete(Path dir) {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+}
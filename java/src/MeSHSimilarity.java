@@ -1,52 +1,140 @@
 import java.io.*;
-import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.HashMap;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
+/**
+ * This class computes the pairwise similarities of the MeSH descriptors and writes them as a binary similarity matrix
+ * (see {@link SimilarityMatrix}), which can be loaded directly by {@link MyAffinityFunction}.
+ * The similarity of two descriptors is path-based over the MeSH hierarchy and computed by a {@link MeSHTree}, which
+ * can also be used by {@link MyAffinityFunction} directly if the matrix would be too large.
+ * Only the strict lower triangle of the matrix is computed (row i holds the similarities to the descriptors 0..i-1, as
+ * stored by {@link SimilarityMatrix}), in blocks of rows which are computed in parallel with fork-join and streamed to
+ * the file in order.
+ */
 public class MeSHSimilarity {
 
+    /**
+     * Number of rows of the matrix which are computed in parallel and then written at once
+     */
+    private static final int BLOCK_ROWS = 256;
+
+    /**
+     * Number of rows below which a range of rows is computed sequentially
+     */
+    private static final int SEQUENTIAL_ROWS = 4;
+
     public static void main(String[] args) {
         String separ = File.separator;
         String inputFile = "out" + separ + "csv" + separ + "mesh.csv";
-        String line = "";
+        String dictFile = "out" + separ + "csv" + separ + "mesh.dict";
+        String outFile = "out" + separ + "similarities.bin";
 
-        HashMap<String, String> map = new HashMap<>();
-
-        // Save csv content to HashMap
-        try (BufferedReader reader = new BufferedReader(new FileReader(inputFile))) {
-            while ((line = reader.readLine()) != null) {
-                String[] s = line.split("\\|");
-                map.put(s[0], s[1]);
-            }
-        } catch (FileNotFoundException e) {
+        // Build the trie of the descriptors from the dictionary or else from "ID|Name|TreeNumber;TreeNumber;..."
+        MeSHTree tree;
+        try {
+            if (Files.exists(Paths.get(dictFile)))
+                tree = MeSHTree.load(TermDictionary.open(Paths.get(dictFile)));
+            else
+                tree = MeSHTree.load(Paths.get(inputFile));
+        } catch (IOException e) {
             e.printStackTrace();
+            return;
+        }
+
+        // Compute and save the similarity matrix
+        long start = System.currentTimeMillis();
+        try {
+            writeMatrix(tree, Paths.get(outFile));
         } catch (IOException e) {
             e.printStackTrace();
+            return;
         }
+        System.out.println("Done! Computed the similarities of " + tree.size() + " descriptors in " +
+                (System.currentTimeMillis() - start) + " ms.");
+    }
 
 
-//        for (String key : map.keySet()) {
-//            System.out.println(key + ": " + map.get(key));
-//        }
+    /**
+     * Computes the similarity matrix of all terms of a similarity store and streams it to a file in the binary format
+     * of {@link SimilarityMatrix}.
+     *
+     * @param store Similarities of the terms
+     * @param file  Path of the binary file
+     * @throws IOException If the file can not be written
+     */
+    public static void writeMatrix(SimilarityStore store, Path file) throws IOException {
+        String[] terms = new String[store.size()];
+        for (int i = 0; i < terms.length; i++)
+            terms[i] = store.term(i);
 
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            SimilarityMatrix.writeFully(channel, SimilarityMatrix.header(terms));
 
-        // Save termpairs to csv
-        String[] terms = new String[1];
-        terms = map.values().toArray(terms);
-        String outFile = "out" + separ + "csv" + separ + "termpairs.csv";
-        try (FileOutputStream fileout = new FileOutputStream(outFile)) {
-            for (String t1 : terms) {
-                for (String t2 : terms) {
-                    fileout.write((t1 + "<>" + t2 + "\n").getBytes(StandardCharsets.UTF_8));
-                }
-                fileout.flush();
+            // Row r contains the similarities to the terms 0..r-1, the rows are computed and written in blocks
+            long maxBlock = SimilarityMatrix.offset(terms.length, 0) - SimilarityMatrix.offset(
+                    Math.max(1, terms.length - BLOCK_ROWS), 0);
+            ByteBuffer buffer = ByteBuffer.allocateDirect((int) Math.max(4, maxBlock * 4));
+            for (int from = 1; from < terms.length; from += BLOCK_ROWS) {
+                int to = Math.min(terms.length, from + BLOCK_ROWS);
+                long first = SimilarityMatrix.offset(from, 0);
+                long size = SimilarityMatrix.offset(to, 0) - first;
+
+                buffer.clear();
+                pool.invoke(new Rows(store, buffer.asFloatBuffer(), first, from, to));
+                buffer.limit((int) (size * 4));
+                SimilarityMatrix.writeFully(channel, buffer);
             }
-            fileout.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
         }
+    }
 
+    /**
+     * Computes the similarities of a range of rows into a buffer, which starts with the similarities of the
+     * first row of the block.
+     */
+    private static class Rows extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final SimilarityStore store;
+
+        private final FloatBuffer block;
+
+        private final long first;
+
+        private final int from;
+
+        private final int to;
+
+        Rows(SimilarityStore store, FloatBuffer block, long first, int from, int to) {
+            this.store = store;
+            this.block = block;
+            this.first = first;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SEQUENTIAL_ROWS) {
+                for (int row = from; row < to; row++) {
+                    int offset = (int) (SimilarityMatrix.offset(row, 0) - first);
+                    for (int col = 0; col < row; col++)
+                        block.put(offset + col, (float) store.similarity(row, col));
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new Rows(store, block, first, from, mid), new Rows(store, block, first, mid, to));
+        }
     }
 
 }
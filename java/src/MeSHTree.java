@@ -0,0 +1,307 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * This class is a trie of the MeSH tree numbers (e.g. C08.127.108), which computes the path-based similarity of
+ * MeSH descriptors on demand instead of materializing a similarity matrix. Each node of the trie is a position in
+ * the MeSH hierarchy, the top-level categories (e.g. C08) are children of a common root and each descriptor is
+ * mapped to the nodes of its tree numbers.
+ * <p>
+ * The similarity of two descriptors is 1 / (1 + length of the shortest path between any of their positions), e.g.
+ * 0.2 for Asthma (C08.127.108) and Cough (C08.618.248). The path length of two positions is obtained from the depth
+ * of their lowest common ancestor, which is found by walking up the parent pointers in O(depth). The trie only
+ * stores the parent and the depth of each node and the positions of each descriptor, s.t. its memory footprint is
+ * linear in the number of tree numbers.
+ */
+public class MeSHTree implements SimilarityStore {
+
+    /**
+     * Delimiter of the columns in the MeSH csv-file ("ID|Name|TreeNumbers")
+     */
+    private static final char DELIMITER = '|';
+
+    /**
+     * Delimiter of the tree numbers of a descriptor
+     */
+    private static final char TREE_NUMBER_DELIMITER = ';';
+
+    /**
+     * Delimiter of the segments of a tree number
+     */
+    private static final char SEGMENT_DELIMITER = '.';
+
+    /**
+     * Names of the descriptors indexed by their id
+     */
+    private final String[] terms;
+
+    /**
+     * Dictionary mapping each descriptor to its id (not serialized, rebuilt from {@link #terms})
+     */
+    private transient HashMap<String, Integer> ids;
+
+    /**
+     * Parent of each node of the trie (-1 for the root, which is node 0)
+     */
+    private final int[] parent;
+
+    /**
+     * Depth of each node of the trie (0 for the root, 1 for the top-level categories)
+     */
+    private final int[] depth;
+
+    /**
+     * The nodes of the descriptor with id i are {@code positions[start[i]..start[i+1]-1]}
+     */
+    private final int[] start;
+
+    /**
+     * Nodes of the tree numbers of all descriptors (see {@link #start})
+     */
+    private final int[] positions;
+
+    /**
+     * Path of the csv-file the trie was loaded from (a string, since paths are not serializable) or {@code null}
+     */
+    private String file;
+
+
+//##################### Constructors ######################
+
+    /**
+     * Builds the trie for the given descriptors.
+     *
+     * @param terms       Distinct names of the descriptors, the i-th descriptor gets the id i
+     * @param treeNumbers Tree numbers of each descriptor (at least one per descriptor)
+     */
+    public MeSHTree(String[] terms, String[][] treeNumbers) {
+        if (terms.length != treeNumbers.length)
+            throw new IllegalArgumentException("Each descriptor needs its tree numbers.");
+
+        this.terms = terms.clone();
+        this.ids = dictionary(this.terms);
+
+        // Insert the prefixes of all tree numbers, the map from prefixes to nodes is only needed while building
+        HashMap<String, Integer> nodes = new HashMap<>();
+        int[] parent = new int[64];
+        int[] depth = new int[64];
+        parent[0] = -1;
+        int size = 1;
+
+        this.start = new int[terms.length + 1];
+        int[] positions = new int[Math.max(16, terms.length * 2)];
+        int count = 0;
+        for (int i = 0; i < terms.length; i++) {
+            if (treeNumbers[i].length == 0)
+                throw new IllegalArgumentException("The descriptor " + terms[i] + " has no tree numbers.");
+            start[i] = count;
+            for (String tn : treeNumbers[i]) {
+                int node = 0;
+                int end = -1;
+                do {
+                    end = tn.indexOf(SEGMENT_DELIMITER, end + 1);
+                    String prefix = end < 0 ? tn : tn.substring(0, end);
+                    Integer child = nodes.get(prefix);
+                    if (child == null) {
+                        if (size == parent.length) {
+                            parent = Arrays.copyOf(parent, size * 2);
+                            depth = Arrays.copyOf(depth, size * 2);
+                        }
+                        child = size++;
+                        parent[child] = node;
+                        depth[child] = depth[node] + 1;
+                        nodes.put(prefix, child);
+                    }
+                    node = child;
+                } while (end >= 0);
+
+                if (count == positions.length)
+                    positions = Arrays.copyOf(positions, count * 2);
+                positions[count++] = node;
+            }
+        }
+        start[terms.length] = count;
+
+        this.parent = Arrays.copyOf(parent, size);
+        this.depth = Arrays.copyOf(depth, size);
+        this.positions = Arrays.copyOf(positions, count);
+    }
+
+
+//##################### Loading ######################
+
+    /**
+     * Loads the descriptors from a csv-file with lines of the form "ID|Name|TreeNumber;TreeNumber;...", e.g.
+     * "D001249|Asthma|C08.127.108;C08.381.495.108" (see {@link MeSHSPARQL}). Lines without tree numbers and repeated
+     * names are skipped.
+     *
+     * @param file Path to the csv-file
+     * @return The trie of the descriptors
+     * @throws IOException If the file can not be read
+     */
+    public static MeSHTree load(Path file) throws IOException {
+        ArrayList<String> names = new ArrayList<>();
+        ArrayList<String[]> treeNumbers = new ArrayList<>();
+        HashSet<String> seen = new HashSet<>();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int d1 = line.indexOf(DELIMITER);
+                int d2 = line.indexOf(DELIMITER, d1 + 1);
+                if (d1 < 0 || d2 < 0 || d2 == line.length() - 1)
+                    continue;
+                String name = line.substring(d1 + 1, d2);
+                if (seen.add(name)) {
+                    names.add(name);
+                    treeNumbers.add(split(line, d2 + 1));
+                }
+            }
+        }
+        MeSHTree tree = new MeSHTree(names.toArray(new String[0]), treeNumbers.toArray(new String[0][]));
+        tree.file = file.toString();
+        return tree;
+    }
+
+    /**
+     * Loads the descriptors from a binary {@link TermDictionary}, without parsing text. Descriptors without tree
+     * numbers and repeated names are skipped.
+     *
+     * @param dictionary The dictionary
+     * @return The trie of the descriptors
+     */
+    public static MeSHTree load(TermDictionary dictionary) {
+        ArrayList<String> names = new ArrayList<>(dictionary.size());
+        ArrayList<String[]> treeNumbers = new ArrayList<>(dictionary.size());
+        HashSet<String> seen = new HashSet<>();
+        for (int i = 0; i < dictionary.size(); i++) {
+            String[] tns = dictionary.treeNumbers(i);
+            if (tns.length == 0)
+                continue;
+            String name = dictionary.name(i);
+            if (seen.add(name)) {
+                names.add(name);
+                treeNumbers.add(tns);
+            }
+        }
+        return new MeSHTree(names.toArray(new String[0]), treeNumbers.toArray(new String[0][]));
+    }
+
+    /**
+     * Splits the tree numbers "TreeNumber;TreeNumber;..." starting at the given index of a line.
+     */
+    private static String[] split(String line, int from) {
+        int count = 1;
+        for (int i = from; i < line.length(); i++) {
+            if (line.charAt(i) == TREE_NUMBER_DELIMITER)
+                count++;
+        }
+        String[] treeNumbers = new String[count];
+        for (int i = 0; i < count; i++) {
+            int end = line.indexOf(TREE_NUMBER_DELIMITER, from);
+            if (end < 0)
+                end = line.length();
+            treeNumbers[i] = line.substring(from, end);
+            from = end + 1;
+        }
+        return treeNumbers;
+    }
+
+    /**
+     * Builds the dictionary mapping each descriptor to its id.
+     */
+    private static HashMap<String, Integer> dictionary(String[] terms) {
+        HashMap<String, Integer> ids = new HashMap<>(terms.length * 2);
+        for (int i = 0; i < terms.length; i++) {
+            if (ids.put(terms[i], i) != null)
+                throw new IllegalArgumentException("The term " + terms[i] + " occurs more than once.");
+        }
+        return ids;
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        ids = dictionary(terms);
+    }
+
+
+//##################### Similarity ######################
+
+    @Override
+    public double similarity(int id1, int id2) {
+        if (id1 == id2)
+            return 1.0;
+        int min = Integer.MAX_VALUE;
+        for (int i = start[id1]; i < start[id1 + 1]; i++) {
+            for (int j = start[id2]; j < start[id2 + 1]; j++)
+                min = Math.min(min, pathLength(positions[i], positions[j]));
+        }
+        return 1.0 / (1 + min);
+    }
+
+    /**
+     * Computes the length of the path between two nodes via their lowest common ancestor.
+     *
+     * @param node1 The first node
+     * @param node2 The second node
+     * @return Length of the path
+     */
+    int pathLength(int node1, int node2) {
+        int length = 0;
+        while (depth[node1] > depth[node2]) {
+            node1 = parent[node1];
+            length++;
+        }
+        while (depth[node2] > depth[node1]) {
+            node2 = parent[node2];
+            length++;
+        }
+        while (node1 != node2) {
+            node1 = parent[node1];
+            node2 = parent[node2];
+            length += 2;
+        }
+        return length;
+    }
+
+
+//##################### Getter ######################
+
+    @Override
+    public int size() {
+        return terms.length;
+    }
+
+    @Override
+    public int id(Object term) {
+        Integer id = ids.get(term.toString());
+        return id == null ? -1 : id;
+    }
+
+    @Override
+    public String term(int id) {
+        return terms[id];
+    }
+
+    /**
+     * Gets the number of nodes of the trie (including the root)
+     * @return Number of nodes
+     */
+    public int nodes() {
+        return parent.length;
+    }
+
+    @Override
+    public Path getFile() {
+        return file == null ? null : Paths.get(file);
+    }
+
+}
@@ -1,11 +1,35 @@
+import org.apache.ignite.binary.BinaryField;
 import org.apache.ignite.binary.BinaryObject;
+import org.apache.ignite.binary.BinaryType;
 import org.apache.ignite.cache.affinity.AffinityFunction;
 import org.apache.ignite.cache.affinity.AffinityFunctionContext;
 import org.apache.ignite.cluster.ClusterNode;
 import org.jetbrains.annotations.NotNull;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamException;
 import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
 
 /**
  * This class provides the affinity collocation functionality as it implements the Interface {@link AffinityFunction}.
@@ -14,31 +38,96 @@ import java.util.*;
  * {@link org.apache.ignite.IgniteCluster}.
  * Furthermore, it is also used to derive a fragmentation of the Info-table based on the fragmentation of the primary
  * table.
+ * <p>
+ * An affinity function has to be deterministic: every node has to map a key to the same partition at any time. The
+ * terms of the active domain are mapped by an immutable table. A term of the {@link SimilarityStore} outside of the
+ * active domain is mapped to the cluster with the most similar head, which is computed on its first use and cached,
+ * hence the store must not change while the affinity function is used. Terms which are neither in the active domain
+ * nor in the store are rejected, as they are not similar to any cluster. Stores that are backed by the cluster
+ * itself ({@link IgniteSimilarityStore}) are rejected, as they would be read while Ignite starts the caches. The
+ * store is not serialized with the affinity function, a copy on another node loads it again from the same file.
  *
  * @param <T> The domain of the relaxation attribute (e.g. String or Integer)
  */
 public class MyAffinityFunction<T> implements AffinityFunction, Serializable {
 
     /**
-     * Number of partitions (should be same for
+     * Number of partitions (number of clusters times {@link #partsPerCluster})
      */
     private int parts;
 
+    /**
+     * Number of partitions each cluster is mapped to. The rows of a cluster are spread over its partitions by the
+     * person's id, the partitions of the i-th cluster are {@code i * partsPerCluster, ..., (i+1) * partsPerCluster - 1}
+     */
+    private int partsPerCluster = 1;
+
 
     /**
      * Default value for clustering algorithm threshold.
      */
     private static final double DFLT_ALPHA = 0.2;
 
+    /**
+     * Default csv-file containing the pairwise similarities (see {@link SimilarityMatrix#load(java.nio.file.Path)}),
+     * relative to the working directory or on the classpath.
+     */
+    private static final String DFLT_SIMILARITIES = "config/similarities.csv";
+
+    /**
+     * System property with the path of the file containing the pairwise similarities, which overrides
+     * {@link #DFLT_SIMILARITIES}
+     */
+    public static final String SIMILARITIES_PROPERTY = "bacode.similarities";
+
+    /**
+     * Number of bytes at the start of the file of a similarity store, which are included in its fingerprint
+     */
+    private static final int FINGERPRINT_BLOCK = 1 << 16;
+
+    /**
+     * Default number of nearest neighbours of each term in the {@link NeighbourIndex}.
+     */
+    private static final int DFLT_NEIGHBOURS = 16;
+
     /**
      * Similarity threshold for clustering algorithm and affinity key mapping.
      */
     private final double alpha;
 
     /**
-     * HashMap for the pairwise similarities of predefined MeSH terms (active domain here)
+     * Similarity stores of the affinity functions of this JVM by their identifier (weakly referenced), s.t. a copy of
+     * an affinity function in the same JVM (e.g. of a cache configuration) attaches the same store
+     */
+    private static final ConcurrentHashMap<String, WeakReference<SimilarityStore>> STORES = new ConcurrentHashMap<>();
+
+    /**
+     * Pairwise similarities of the MeSH terms, either a dictionary-encoded matrix or computed on demand (may be
+     * {@code null} for an affinity function restored from a snapshot without similarities). The store is not
+     * serialized, a copy of the affinity function attaches it on first use (see {@link #getSimilarities()}).
      */
-    private HashMap<String, Double> similarities;
+    private transient volatile SimilarityStore similarities;
+
+    /**
+     * True if {@link #similarities} is attached, false if it is attached on first use
+     */
+    private transient volatile boolean storeAttached;
+
+    /**
+     * Identifier of the similarity store in {@link #STORES}
+     */
+    private String storeId;
+
+    /**
+     * Absolute path of the file the similarity store was loaded from (see {@link SimilarityStore#getFile()}) or
+     * {@code null}, by which a copy of the affinity function on another node loads the store again
+     */
+    private String storeFile;
+
+    /**
+     * Class of the similarity store loaded from {@link #storeFile}
+     */
+    private String storeType;
 
     /**
      * Array of all the terms occuring in the active domain of the relaxation attribute
@@ -51,6 +140,53 @@ public class MyAffinityFunction<T> implements AffinityFunction, Serializable {
      */
     private ArrayList<Cluster<T>> clusters;
 
+    /**
+     * Index of the head of each cluster in {@link #terms} (indexed by the cluster)
+     */
+    private int[] heads;
+
+    /**
+     * Immutable lookup table mapping each term of the active domain to its cluster. It is precomputed once in the
+     * constructor, s.t. {@link #partition(Object)} does not need to compare a term against all cluster heads.
+     */
+    private Map<T, Integer> clusterTable;
+
+    /**
+     * Cluster with the most similar head of each term of the similarity store outside of the active domain (by its
+     * string representation), computed on the first use of the term
+     */
+    private transient volatile ConcurrentHashMap<String, Integer> outerClusters;
+
+    /**
+     * Fingerprint of the similarity store the clustering is based on (see {@link #fingerprint(SimilarityStore)}),
+     * stored in the snapshot to detect a stale clustering
+     */
+    private long storeFingerprint;
+
+    /**
+     * Estimated data volume of each cluster, used to balance the partitions across the nodes (see
+     * {@link PartitionPlacement}). Initially the number of terms of the cluster, see
+     * {@link #setTermFrequencies(Map)} for a better estimate.
+     */
+    private double[] clusterWeights;
+
+    /**
+     * Binary types of {@link IllKey} and {@link InfoKey} with the fields needed for the mapping (resolved by the first
+     * binary key of each type). The array is replaced when a type is added and is searched by the primitive type id,
+     * s.t. the lookup of a binary key does not allocate.
+     */
+    private transient volatile BinaryKeyType[] binaryKeyTypes;
+
+    /**
+     * Number of nearest neighbours of each term in the {@link #neighbourIndex}
+     */
+    private int neighbourCount = DFLT_NEIGHBOURS;
+
+    /**
+     * Nearest neighbours of each term of the active domain (built on first use, see {@link #getNeighbourIndex()})
+     */
+    private transient volatile NeighbourIndex neighbourIndex;
+
 
 //##################### Constructors ######################
 
@@ -64,6 +200,19 @@ public class MyAffinityFunction<T> implements AffinityFunction, Serializable {
         this(DFLT_ALPHA, terms);
     }
 
+    /**
+     * Constructor reading the pairwise similarities from the file given by the system property
+     * {@value #SIMILARITIES_PROPERTY}, otherwise from the default csv-file "config/similarities.csv" in the working
+     * directory or on the classpath.
+     * For details see {@link MyAffinityFunction#MyAffinityFunction(double, Object[], SimilarityStore)}.
+     *
+     * @param alpha Threshold for clustering algorithm
+     * @param terms Array containing active domain of relaxation attribute
+     */
+    public MyAffinityFunction(double alpha, T[] terms) {
+        this(alpha, terms, loadSimilarities());
+    }
+
     /**
      * Constructor for a affinity function based on clustering-based fragmentation with similarity calculation.
      * Obtains the clusters from the clustering algorithm for later usage in the affinity collocation and partition
@@ -71,40 +220,168 @@ public class MyAffinityFunction<T> implements AffinityFunction, Serializable {
      *
      * @param alpha Threshold for clustering algorithm
      * @param terms Array containing active domain of relaxation attribute
+     * @param similarities Pairwise similarities of the terms
      */
-    public MyAffinityFunction(double alpha, T[] terms) {
+    public MyAffinityFunction(double alpha, T[] terms, SimilarityStore similarities) {
         this.alpha = alpha;
         this.terms = terms;
-
-        // Init similarities HashMap
-        // TODO read similarities from csv (prepare csv)
-        // TODO maybe test other implementations (e.g. other data structure, as cache, ...)
-        similarities = new HashMap<>(terms.length);
-        similarities.put("C0004096+C0010200", 0.2);      //0.2<>Asthma(C0004096)<>Cough(C0010200)
-        similarities.put("C0004096+C0021400", 0.2);      //0.2<>Asthma(C0004096)<>Influenza(C0021400)
-        similarities.put("C0004096+C0040185", 0.1429);   //0.1429<>Asthma(C0004096)<>Tibial Fracture(C0040185)
-        similarities.put("C0004096+C0041601", 0.1429);   //0.1429<>Asthma(C0004096)<>Ulna Fracture(C0041601)
-        similarities.put("C0010200+C0021400", 0.2);      //0.2<>Cough(C0010200)<>Influenza(C0021400)
-        similarities.put("C0010200+C0040185", 0.1429);   //0.1429<>Cough(C0010200)<>Tibial Fracture(C0040185)
-        similarities.put("C0010200+C0041601", 0.1429);   //0.1429<>Cough(C0010200)<>Ulna Fracture(C0041601)
-        similarities.put("C0021400+C0040185", 0.1429);   //0.1429<>Influenza(C0021400)<>Tibial Fracture(C0040185)
-        similarities.put("C0021400+C0041601", 0.1429);   //0.1429<>Influenza(C0021400)<>Ulna Fracture(C0041601)
-        similarities.put("C0040185+C0041601", 0.3333);   //.3333<>Tibial Fracture(C0040185)<>Ulna Fracture(C0041601)
+        attach(similarities);
 
         // Calculate clustering (index of cluster implies mapping of cluster to partition)
         // TODO read terms from csv instead of as predefined String array
-        List<T> termList = new LinkedList<>(Arrays.asList(terms));
-        clusters = clustering(termList);
+        int[] ids = termIds(terms);
+        storeFingerprint = fingerprint(similarities);
+        ClusteringEngine engine = new ClusteringEngine(similarities, ids, alpha).run();
+        int[] termCluster = new int[terms.length];
+        for (int i = 0; i < terms.length; i++)
+            termCluster[i] = engine.cluster(i);
+        int[] heads = new int[engine.clusters()];
+        for (int c = 0; c < heads.length; c++)
+            heads[c] = engine.head(c);
+        initClusters(termCluster, heads);
+
+        // Initial estimate of the data volume of each cluster
+        clusterWeights = new double[clusters.size()];
+        for (int c = 0; c < clusters.size(); c++)
+            clusterWeights[c] = clusters.get(c).getAdom().size() + 1;
+    }
 
-        // each cluster is assigned to a partition and for each cluster the same partition is used also for the
-        // derived fragmentation
-        // TODO instead of same partition as the cluster use one extra partition per node to store ALL derived fragments
-        parts = clusters.size();
+    /**
+     * Constructor restoring an affinity function from a snapshot of its clustering (see
+     * {@link #fromSnapshot(ClusteringSnapshot, SimilarityStore)}).
+     *
+     * @param snapshot     Snapshot of the clustering
+     * @param similarities Pairwise similarities of the terms or {@code null}
+     */
+    private MyAffinityFunction(ClusteringSnapshot snapshot, T[] terms, SimilarityStore similarities) {
+        this.alpha = snapshot.getAlpha();
+        this.terms = terms;
+        attach(similarities);
+        this.partsPerCluster = snapshot.getPartitionsPerCluster();
+        this.storeFingerprint = snapshot.getStoreFingerprint();
+        initClusters(snapshot.getTermClusters(), snapshot.getHeads());
+        this.clusterWeights = snapshot.getClusterWeights().clone();
+    }
 
-        // Debug
-        System.out.println("Clustering: Size=" + clusters.size() + ", Partitions=" + parts);
-        for (Cluster<T> c : clusters)
-            System.out.println(c);
+    /**
+     * Restores an affinity function from a snapshot of its clustering without running the clustering algorithm.
+     * Without similarities, only the terms of the active domain can be mapped.
+     *
+     * @param snapshot     Snapshot of the clustering (see {@link #snapshot()})
+     * @param similarities Pairwise similarities of the terms or {@code null}
+     * @return The affinity function
+     */
+    public static MyAffinityFunction<String> fromSnapshot(ClusteringSnapshot snapshot, SimilarityStore similarities) {
+        return new MyAffinityFunction<>(snapshot, snapshot.getTerms(), similarities);
+    }
+
+    /**
+     * Restores an affinity function from a snapshot file (see {@link ClusteringSnapshot#load(Path)}).
+     *
+     * @param snapshot     Path of the snapshot file
+     * @param similarities Pairwise similarities of the terms or {@code null}
+     * @return The affinity function
+     * @throws IOException If the snapshot can not be read
+     */
+    public static MyAffinityFunction<String> load(Path snapshot, SimilarityStore similarities) throws IOException {
+        return fromSnapshot(ClusteringSnapshot.load(snapshot), similarities);
+    }
+
+    /**
+     * Restores an affinity function from a snapshot file, if the snapshot is a clustering of the given alpha,
+     * partitions per cluster, terms and similarity store (see {@link ClusteringSnapshot#matches(double, int, String[],
+     * long)}). Otherwise the terms are clustered again and the snapshot file is (re)written. The store is compared by
+     * its {@link #fingerprint(SimilarityStore)}, hence a snapshot of a store which was not loaded from a file is
+     * always rebuilt.
+     *
+     * @param snapshot        Path of the snapshot file
+     * @param alpha           Threshold for clustering algorithm
+     * @param partsPerCluster Number of partitions per cluster (see {@link #setPartitionsPerCluster(int)})
+     * @param terms           Array containing active domain of relaxation attribute
+     * @param similarities    Pairwise similarities of the terms
+     * @return The affinity function
+     * @throws IOException If the snapshot can not be written
+     */
+    public static MyAffinityFunction<String> loadOrBuild(Path snapshot, double alpha, int partsPerCluster,
+                                                         String[] terms, SimilarityStore similarities)
+            throws IOException {
+        if (Files.exists(snapshot)) {
+            try {
+                ClusteringSnapshot clustering = ClusteringSnapshot.load(snapshot);
+                if (clustering.matches(alpha, partsPerCluster, terms, fingerprint(similarities)))
+                    return fromSnapshot(clustering, similarities);
+                System.out.println("The clustering snapshot " + snapshot + " is stale, clustering again.");
+            } catch (IOException e) {
+                System.out.println("The clustering snapshot " + snapshot + " is invalid (" + e.getMessage() +
+                        "), clustering again.");
+            }
+        }
+
+        MyAffinityFunction<String> affinity = new MyAffinityFunction<>(alpha, terms, similarities)
+                .setPartitionsPerCluster(partsPerCluster);
+        if (snapshot.getParent() != null)
+            Files.createDirectories(snapshot.getParent());
+        affinity.snapshot().write(snapshot);
+        return affinity;
+    }
+
+    /**
+     * Computes a fingerprint of a similarity store from the size, the modification time and a checksum of the first
+     * {@value #FINGERPRINT_BLOCK} bytes (e.g. the header with the terms) of the file it was loaded from. The
+     * similarities themselves are not read, s.t. the fingerprint is cheap for any size of the store, and it changes
+     * whenever the file is written again.
+     *
+     * @param similarities Pairwise similarities of the terms or {@code null}
+     * @return Fingerprint of the store (0 if the store was not loaded from a file or the file can not be read)
+     */
+    static long fingerprint(SimilarityStore similarities) {
+        Path file = similarities == null ? null : similarities.getFile();
+        if (file == null)
+            return 0;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer block = ByteBuffer.allocate((int) Math.min(channel.size(), FINGERPRINT_BLOCK));
+            while (block.hasRemaining() && channel.read(block) >= 0) {
+                // Read the first block
+            }
+            CRC32 checksum = new CRC32();
+            checksum.update(block.array(), 0, block.position());
+
+            long hash = 0xcbf29ce484222325L;
+            for (long value : new long[] {channel.size(), Files.getLastModifiedTime(file).toMillis(),
+                    checksum.getValue(), similarities.size()})
+                hash = (hash ^ value) * 0x100000001b3L;
+            return hash == 0 ? 1 : hash;
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Builds the clusters, the lookup table and the partition count from the cluster of each term.
+     *
+     * @param termCluster Cluster of each term of the active domain
+     * @param heads       Index of the head of each cluster in the active domain
+     */
+    private void initClusters(int[] termCluster, int[] heads) {
+        this.heads = heads;
+        clusters = new ArrayList<>(heads.length);
+        for (int c = 0; c < heads.length; c++)
+            clusters.add(new Cluster<>(terms[heads[c]]));
+
+        // Precompute the cluster of each term of the active domain
+        HashMap<T, Integer> table = new HashMap<>(terms.length * 2);
+        for (int i = 0; i < terms.length; i++) {
+            int c = termCluster[i];
+            table.put(terms[i], c);
+            if (heads[c] != i)
+                clusters.get(c).getAdom().add(terms[i]);
+        }
+        clusterTable = Collections.unmodifiableMap(table);
+
+        // each cluster is assigned to partsPerCluster partitions and for each row the same partition is used also for
+        // the derived fragmentation
+        // TODO instead of same partition as the cluster use one extra partition per node to store ALL derived fragments
+        parts = clusters.size() * partsPerCluster;
     }
 
 
@@ -145,38 +422,94 @@ public class MyAffinityFunction<T> implements AffinityFunction, Serializable {
             throw new IllegalArgumentException("The key passed to the MyAffinityFunction's method " +
                     "partition(Object key) was null.");
 
-        int partition = -1;
-
-        // If the key is of type BinaryObject, then deserialize it first
-        if (key instanceof BinaryObject) {
-            BinaryObject binary = (BinaryObject) key;
-            key = binary.deserialize();
-            System.out.println("Deserialized the BinaryObject: " + key);        // Debug
-        }
+        // If the key is of type BinaryObject, then only read the fields needed for the mapping
+        if (key instanceof BinaryObject)
+            return partition((BinaryObject) key);
 
-        // If the key is of type IllKey, then find the partition based on the clustering (i-th cluster = i-th partition)
+        // If the key is of type IllKey, then find the partition based on the clustering and the person's id
         // If the key is of type InfoKey, then find the partition based on the derived fragmentation
         if (key instanceof IllKey) {
-            System.out.println("partition(key) got IllKey! Assigning partition based on clustering ...");   //Debug
             IllKey illKey = (IllKey) key;
-            partition = identifyCluster((T) illKey.getDisease());
+            return partition(clusterOf(illKey.getDisease()), illKey.getPersonID());
         }
-        else if (key instanceof InfoKey) {
-            System.out.println("partition(key) got InfoKey! Assigning partition based on derived fragmentation ..."); //Debug
-            partition = ((InfoKey) key).getAffinityPartition();
-        } else
-            System.out.println("!!!ERROR!!! key object is of some other type: " + key.getClass() + "!!!!!!!!!!!!!!!!!!!");
+        else if (key instanceof InfoKey)
+            return ((InfoKey) key).getAffinityPartition();
 
-        System.out.println("partition(key) returns partition number " + partition);
+        throw new IllegalArgumentException("The key passed to the MyAffinityFunction's method partition(Object key) " +
+                "is of an unsupported type: " + key.getClass());
+    }
+
+
+    /**
+     * Returns the partition mapping for a key in binary form. Only the fields needed for the mapping are read through
+     * the binary API, the key is not deserialized (the key classes are not even required on the classpath). The
+     * binary types of {@link IllKey} and {@link InfoKey} and their fields are resolved once by the type name of the
+     * first key of each type and then looked up by the type id.
+     *
+     * @param key Key in binary form
+     * @return Partition
+     */
+    private int partition(BinaryObject key) {
+        BinaryType type = key.type();
+        int typeId = type.typeId();
+        BinaryKeyType keyType = null;
+        BinaryKeyType[] types = binaryKeyTypes;
+        if (types != null) {
+            for (BinaryKeyType t : types) {
+                if (t.typeId == typeId) {
+                    keyType = t;
+                    break;
+                }
+            }
+        }
+        if (keyType == null)
+            keyType = resolveBinaryKeyType(type);
+
+        if (keyType.ill)
+            return partition(clusterOf(keyType.fields[0].value(key)), keyType.fields[1].<Integer>value(key));
+
+        Integer partition = keyType.fields[0].value(key);
+        if (partition == null)
+            throw new IllegalArgumentException("The binary InfoKey passed to the MyAffinityFunction's method " +
+                    "partition(Object key) has no affinityPartition: " + key);
         return partition;
     }
 
 
+    /**
+     * Resolves the binary type of a key by its type name, on the first key of this type.
+     *
+     * @param type Binary type of the key
+     * @return The binary type with the fields needed for the mapping
+     */
+    private synchronized BinaryKeyType resolveBinaryKeyType(BinaryType type) {
+        BinaryKeyType[] types = binaryKeyTypes == null ? new BinaryKeyType[0] : binaryKeyTypes;
+        for (BinaryKeyType t : types) {
+            if (t.typeId == type.typeId())
+                return t;
+        }
+
+        BinaryKeyType keyType;
+        if (type.typeName().equals(IllKey.class.getName()))
+            keyType = new BinaryKeyType(type, true, "disease", "personID");
+        else if (type.typeName().equals(InfoKey.class.getName()))
+            keyType = new BinaryKeyType(type, false, "affinityPartition");
+        else
+            throw new IllegalArgumentException("The binary key passed to the MyAffinityFunction's method " +
+                    "partition(Object key) is of an unsupported type: " + type.typeName());
+        types = Arrays.copyOf(types, types.length + 1);
+        types[types.length - 1] = keyType;
+        binaryKeyTypes = types;
+        return keyType;
+    }
+
+
     /**
      * This function maps all the partitions of this cache to nodes of the cluster. The outer list
      * of the returned nested lists is indexed by the partition number and stores the mapping of that
-     * partition to a list of nodes of the cluster (inner lists).
-     * The current functionality is limited to map each partition only to one primary node without backups.
+     * partition to a list of nodes of the cluster (inner lists), the primary node first and then the backup nodes.
+     * The partitions are balanced across the nodes by their estimated data volume and stay on their previous nodes
+     * as far as possible when the topology changes, for details see {@link PartitionPlacement}.
      *
      * @param affCtx Context to be passed to the function automatically. For details see {@link AffinityFunction}.
      * @return Assignment of partitions to nodes
@@ -187,20 +520,104 @@ public class MyAffinityFunction<T> implements AffinityFunction, Serializable {
             throw new IllegalArgumentException("AffinityFunctionContext passed to the MyAffinityFunction's method " +
                     "assignPartitions(AffinityFunctionContext affCtx) was null.");
 
-        // Resulting list maps each partition to a list of nodes
-        List<List<ClusterNode>> result = new ArrayList<>(this.parts);
-
-        // Get all the nodes in the cluster
-        List<ClusterNode> allNodes = affCtx.currentTopologySnapshot();
-        System.out.println("assignPartitions: parts=" + parts + ", allNodes=" + Arrays.toString(allNodes.toArray()));   //Debug
-        // Assign each partition to a node (no replication)
-        for (int i = 0; i < this.parts; i++) {
-            List<ClusterNode> assignedNodes = this.assignPartition(i, allNodes);
-            result.add(i, assignedNodes);
-            System.out.println("Assigned partition " + i + " to node " + assignedNodes.get(0).id());    // Debug
+        // Each partition of a cluster holds an equal share of the cluster's data volume
+        double[] weights = new double[parts];
+        for (int p = 0; p < parts; p++)
+            weights[p] = clusterWeights[p / partsPerCluster] / partsPerCluster;
+
+        // Keep the previous assignment as far as possible, s.t. only the partitions that must move are rebalanced
+        List<List<ClusterNode>> previous = new ArrayList<>(parts);
+        for (int p = 0; p < parts; p++)
+            previous.add(affCtx.previousAssignment(p));
+
+        return new PartitionPlacement(weights).assign(affCtx.currentTopologySnapshot(), affCtx.backups(), previous);
+    }
+
+
+//##################### Getter & Setter ######################
+
+    /**
+     * Sets the expected number of rows of each term, which are summed up per cluster to estimate the data volume
+     * of the partitions. Terms without a frequency do not contribute to the volume of their cluster.
+     * Has to be set before the affinity function is passed to a cache configuration.
+     *
+     * @param frequencies Expected number of rows of each term
+     * @return This affinity function for chaining
+     */
+    public MyAffinityFunction<T> setTermFrequencies(Map<T, ? extends Number> frequencies) {
+        double[] weights = new double[clusters.size()];
+        for (Map.Entry<T, ? extends Number> e : frequencies.entrySet()) {
+            Integer cluster = clusterTable.get(e.getKey());
+            if (cluster != null)
+                weights[cluster] += e.getValue().doubleValue();
         }
+        clusterWeights = weights;
+        return this;
+    }
 
-        return result;
+    /**
+     * Sets the number of partitions each cluster is mapped to (default 1). More partitions per cluster allow to
+     * spread a large cluster across several cores and nodes, while a relaxed query still only touches the partitions
+     * of a single cluster (see {@link #clusterPartitions(Object)}).
+     * Has to be set before the affinity function is passed to a cache configuration.
+     *
+     * @param partsPerCluster Number of partitions per cluster
+     * @return This affinity function for chaining
+     */
+    public MyAffinityFunction<T> setPartitionsPerCluster(int partsPerCluster) {
+        if (partsPerCluster < 1)
+            throw new IllegalArgumentException("Each cluster needs at least one partition.");
+        this.partsPerCluster = partsPerCluster;
+        this.parts = clusters.size() * partsPerCluster;
+        return this;
+    }
+
+    /**
+     * Gets the number of partitions each cluster is mapped to
+     * @return Number of partitions per cluster
+     */
+    public int getPartitionsPerCluster() {
+        return partsPerCluster;
+    }
+
+    /**
+     * Sets the maximal number of nearest neighbours of each term (default 16), see {@link #neighbours(Object)}.
+     * The neighbour index is rebuilt on its next use.
+     *
+     * @param neighbourCount Maximal number of neighbours per term
+     * @return This affinity function for chaining
+     */
+    public MyAffinityFunction<T> setNeighbourCount(int neighbourCount) {
+        if (neighbourCount < 1)
+            throw new IllegalArgumentException("Each term needs at least one neighbour.");
+        this.neighbourCount = neighbourCount;
+        this.neighbourIndex = null;
+        return this;
+    }
+
+    /**
+     * Gets the maximal number of nearest neighbours of each term
+     * @return Number of neighbours per term
+     */
+    public int getNeighbourCount() {
+        return neighbourCount;
+    }
+
+    /**
+     * Gets the nearest-neighbour index of the active domain, which is built on first use (e.g. the first relaxation),
+     * as it costs O(n^2) similarity lookups for n terms and is not needed to map keys.
+     * @return The index or {@code null} if there are no similarities
+     */
+    public NeighbourIndex getNeighbourIndex() {
+        NeighbourIndex index = neighbourIndex;
+        if (index == null && getSimilarities() != null) {
+            synchronized (this) {
+                if (neighbourIndex == null)
+                    neighbourIndex = new NeighbourIndex(getSimilarities(), termIds(terms), neighbourCount, alpha);
+                index = neighbourIndex;
+            }
+        }
+        return index;
     }
 
 
@@ -208,190 +625,424 @@ public class MyAffinityFunction<T> implements AffinityFunction, Serializable {
 
 //##################### Clustering-based Fragmentation (Partition-Mappings, Cluster-Algorithm)  ######################
 
+    /**
+     * Gets the partitions of the cluster a term belongs to. A relaxed query on this term only has to be executed on
+     * these partitions.
+     *
+     * @param term The term
+     * @return The partitions of the term's cluster
+     */
+    public int[] clusterPartitions(T term) {
+        int first = clusterOf(term) * partsPerCluster;
+        int[] result = new int[partsPerCluster];
+        for (int i = 0; i < partsPerCluster; i++)
+            result[i] = first + i;
+        return result;
+    }
 
     /**
-     * Assign a certain partition to a certain node in the cluster.
-     * <p>
-     * This functionality can also be optionally extended later to map partitions to several nodes,
-     * e.g. primary and backup nodes according to the clustering-based fragmentation.
+     * Gets the terms of the active domain in the cluster a term belongs to, the head of the cluster first. These are
+     * the terms a query on this term is relaxed to (see {@link QueryRelaxer}).
      *
-     * @param partition The number of the partition to assign to a node
-     * @param allNodes  A list of all nodes in the cluster, can be provided by e.g.
-     *                  {@see AffinityFunctionContext#currentTopologySnapshot()}
-     * @return List of cluster nodes (currently containing only one node) to which the partition is mapped
-     */
-    private List<ClusterNode> assignPartition(int partition, List<ClusterNode> allNodes) {
-        // TODO Assign partition i to the node it belongs to according to the clustering-based fragmentation
-        // TODO or according to the bin packing problem?!?!
-        // TODO adapt assingment to depend on number of nodes and  (currently mod)
-        /* (assuming i partitions and i nodes)
-           The i-th partition is assigned to the (i % number of nodes)-th node
-           Example: 2 Nodes
-                - partition 0 with respiratory diseases --> node 0, partition 1 with fractures --> node 1
-        */
-        System.out.print("Assigning partition " + partition + " to node " + allNodes.get(partition).id());     // Debug
-        List<ClusterNode> result = new ArrayList<>();
-        result.add(allNodes.get(partition % allNodes.size()));
+     * @param term The term
+     * @return The terms of the term's cluster
+     */
+    public List<T> clusterTerms(T term) {
+        Cluster<T> cluster = clusters.get(clusterOf(term));
+        List<T> result = new ArrayList<>(cluster.getAdom().size() + 1);
+        result.add(cluster.getHead());
+        result.addAll(cluster.getAdom());
         return result;
     }
 
+    /**
+     * Gets the partition of a row of a cluster. The rows of a cluster are spread over the cluster's partitions by
+     * the person's id.
+     *
+     * @param cluster  The cluster of the row
+     * @param personID The person's id of the row
+     * @return Number of the partition
+     */
+    private int partition(int cluster, Integer personID) {
+        if (partsPerCluster == 1 || personID == null)
+            return cluster * partsPerCluster;
+        return cluster * partsPerCluster + Math.floorMod(personID, partsPerCluster);
+    }
+
+
 
     /**
-     * This method calculates the clustering of the active domain of the relaxation attribute in a table.
+     * This method maps the active domain of the relaxation attribute to the ids of the terms in the similarity store,
+     * which are the input of the clustering algorithm ({@link ClusteringEngine}) and of the {@link NeighbourIndex}.
      * All the values of the active domain of the relaxation attribute (column) are assigned to a cluster
-     * (Note: do not mix up with the cluster of nodes storing data! Here clusters are the partitions). The
-     * resulting assignment is a list of clusters. For details see {@link Cluster}
+     * (Note: do not mix up with the cluster of nodes storing data! Here clusters are the partitions), the i-th term
+     * of the engine is the i-th term of the active domain.
      *
      * @param activeDomain The active domain of the relaxation attribute
+     * @return Id of each term in the similarity store
      */
-    private ArrayList<Cluster<T>> clustering(@NotNull List<T> activeDomain) {
-        if (activeDomain.isEmpty())
-            throw new IllegalArgumentException("The list containing the active domain is empty.");
+    private int[] termIds(@NotNull T[] activeDomain) {
+        if (activeDomain.length == 0)
+            throw new IllegalArgumentException("The array containing the active domain is empty.");
+
+        // Map the terms to their ids in the similarity store
+        SimilarityStore similarities = getSimilarities();
+        int[] ids = new int[activeDomain.length];
+        for (int i = 0; i < activeDomain.length; i++) {
+            ids[i] = similarities.id(activeDomain[i]);
+            if (ids[i] < 0)
+                throw new IllegalArgumentException("There are no similarities for the term " + activeDomain[i] +
+                        " of the active domain.");
+        }
+        return ids;
+    }
 
 
-        // Initialize the first cluster with all values from the active domain (except head element)
-        ArrayList<Cluster<T>> clusters = new ArrayList<>();
-        T headElement = activeDomain.remove(0);
-        Cluster<T> c = new Cluster<>(headElement, new HashSet<>(activeDomain));
-        clusters.add(0, c);
+    /**
+     * Gets the nearest neighbours of a term of the active domain, i.e. the (at most {@link #getNeighbourCount()})
+     * most similar other terms with a similarity of at least alpha, ordered by decreasing similarity. These are the
+     * candidates for relaxing a query on the term and are read from the {@link NeighbourIndex} in O(k).
+     *
+     * @param term The term
+     * @return The neighbours of the term, empty if the term is not in the active domain or no similarity store is
+     *         attached
+     */
+    public List<T> neighbours(T term) {
+        NeighbourIndex index = getNeighbourIndex();
+        int t = index == null ? -1 : index.index(getSimilarities().id(term));
+        if (t < 0)
+            return Collections.emptyList();
+        List<T> result = new ArrayList<>(index.count(t));
+        for (int i = 0; i < index.count(t); i++)
+            result.add(terms[index.neighbour(t, i)]);
+        return result;
+    }
 
-        // Initial minimal similarity for next head
-        double sim_min = 1.0;
-        for (T term : c.getAdom()) {       // note: adom does not contain head!
-            double sim = similarity(term, headElement);
-            if (sim < sim_min)
-                sim_min = sim;
-        }
 
+    /**
+     * Gets the similarity of two terms. Terms without any similarities are only similar to themselves, and so are
+     * all terms if no similarity store is attached.
+     * @param term1 The first term
+     * @param term2 The second term
+     * @return Similarity value
+     */
+    public double similarity(T term1, T term2) {
+        if (term1.equals(term2))
+            return 1.0;
+        SimilarityStore similarities = getSimilarities();
+        if (similarities == null)
+            return 0.0;
+        int id1 = similarities.id(term1);
+        int id2 = similarities.id(term2);
+        if (id1 < 0 || id2 < 0)
+            return 0.0;
+        return similarities.similarity(id1, id2);
+    }
 
-        // Clustering procedure
-        int i = 0;
-        while (sim_min < alpha) {
-
-            // Get the element with the smallest similarity to any cluster head (argmin of similarity)
-            T nextHead = null;
-            for (int j = 0; j <= i; j++) {
-                c = clusters.get(j);
-                T head_j = c.getHead();
-                Set<T> adom = c.getAdom();
-                for (T term : adom) {
-                    if (similarity(term, head_j) == sim_min) {
-                        nextHead = term;
-                        adom.remove(term);      // remove new found head from the old cluster
-                        break;
-                    }
-                }
-                // Already found next head?
-                if (nextHead != null)
-                    break;
-            }
 
+    /**
+     * Loads the pairwise similarities (see {@link SimilarityMatrix#load(java.nio.file.Path)}) from the file given by
+     * the system property {@value #SIMILARITIES_PROPERTY}. Without the property, the default csv-file is read from
+     * the working directory or, if it does not exist there, from the classpath.
+     * @return The similarity matrix
+     */
+    private static SimilarityMatrix loadSimilarities() {
+        String file = System.getProperty(SIMILARITIES_PROPERTY);
+        try {
+            if (file != null || Files.exists(Paths.get(DFLT_SIMILARITIES)))
+                return SimilarityMatrix.load(Paths.get(file != null ? file : DFLT_SIMILARITIES));
+
+            InputStream resource = MyAffinityFunction.class.getClassLoader().getResourceAsStream(DFLT_SIMILARITIES);
+            if (resource == null)
+                throw new UncheckedIOException(new FileNotFoundException("The similarities " + DFLT_SIMILARITIES +
+                        " are neither in the working directory nor on the classpath, set the system property " +
+                        SIMILARITIES_PROPERTY + " to their path."));
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(resource, StandardCharsets.UTF_8))) {
+                return SimilarityMatrix.load(reader, DFLT_SIMILARITIES);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not load the similarities from " +
+                    (file != null ? file : DFLT_SIMILARITIES), e);
+        }
+    }
 
-            // Create next cluster
-            HashSet<T> set = new HashSet<>();
-            for (int j = 0; j <= i; j++) {
 
-                c = clusters.get(j);
-                T head_j = c.getHead();
-                Set<T> adom = c.getAdom();
+    /**
+     * Looks up the cluster of a term in the precomputed {@link #clusterTable}. A term of the similarity store outside
+     * of the active domain is mapped to the cluster with the most similar head (see {@link #identifyCluster(int)}),
+     * which is cached in {@link #outerClusters}.
+     * @param term The term to find the cluster for (of type {@code T}, e.g. the disease of an {@link IllKey})
+     * @return Number of the cluster
+     * @throws IllegalArgumentException If the term is neither in the active domain nor in the similarity store
+     */
+    private int clusterOf(Object term) {
+        if (term == null)
+            throw new IllegalArgumentException("The term of the relaxation attribute (e.g. the disease of an IllKey) " +
+                    "is null.");
+        Integer cluster = clusterTable.get(term);
+        if (cluster != null)
+            return cluster;
+
+        ConcurrentHashMap<String, Integer> outer = outerClusters();
+        cluster = outer.get(term.toString());
+        if (cluster == null) {
+            SimilarityStore similarities = getSimilarities();
+            int id = similarities == null ? -1 : similarities.id(term);
+            if (id >= 0 && (cluster = identifyCluster(similarities, id)) >= 0)
+                outer.putIfAbsent(term.toString(), cluster);
+        }
+        if (cluster == null || cluster < 0)
+            throw new IllegalArgumentException("The term " + term + " is neither in the active domain nor in the " +
+                    "similarity store of the affinity function.");
+        return cluster;
+    }
 
-                // Move terms from the old clusters to the new cluster if they are more similar to nextHead
-                for (T term : adom) {
-                    if (similarity(term, head_j) <= similarity(term, nextHead)) {
-                        set.add(term);          // add to new cluster
-                        adom.remove(term);      // remove from current cluster
-                    }
-                }
+    /**
+     * Gets the cache of the clusters of the further terms of the similarity store, which is created on first use.
+     */
+    private ConcurrentHashMap<String, Integer> outerClusters() {
+        ConcurrentHashMap<String, Integer> result = outerClusters;
+        if (result == null) {
+            synchronized (this) {
+                if (outerClusters == null)
+                    outerClusters = new ConcurrentHashMap<>();
+                result = outerClusters;
             }
+        }
+        return result;
+    }
 
-            i = i + 1;
-            c = new Cluster<>(nextHead, set);
-            clusters.add(i, c);
+
+    /**
+     * This method identifies the cluster of a term of the similarity store, which is the cluster with the most
+     * similar head (the first one in case of ties).
+     * @param similarities The similarity store
+     * @param id Id of the term in the similarity store
+     * @return Number of the cluster or -1 if no head is in the store
+     */
+    private int identifyCluster(SimilarityStore similarities, int id) {
+        // Calculate similarity of t to each of the heads and find maximum similarity
+        double max = -1;
+        int argMax = -1;
+        for (int i = 0; i < clusters.size(); i++) {
+            int head = similarities.id(clusters.get(i).getHead());
+            if (head < 0)
+                continue;
+            double sim = similarities.similarity(id, head);
+            if (max < sim) {
+                max = sim;
+                argMax = i;
+            }
+        }
+        return argMax;
+    }
 
 
-            // Update minimal similarity
-            double min = 1;
-            for (int j = 0; j <= i; j++) {
+    /**
+     * Attaches a similarity store to this affinity function and registers it in {@link #STORES}. If the store was
+     * loaded from a file, the file is recorded for the copies of the affinity function on other nodes.
+     * @param similarities The similarity store or {@code null}
+     */
+    private void attach(SimilarityStore similarities) {
+        this.similarities = checkStore(similarities);
+        this.storeAttached = true;
+        if (similarities == null)
+            return;
+
+        storeId = UUID.randomUUID().toString();
+        STORES.values().removeIf(reference -> reference.get() == null);
+        STORES.put(storeId, new WeakReference<>(similarities));
+        Path file = similarities.getFile();
+        if (file != null) {
+            storeFile = file.toAbsolutePath().toString();
+            storeType = similarities.getClass().getName();
+        }
+    }
 
-                c = clusters.get(j);
-                T head_j = c.getHead();
-                for (T term : c.getAdom()) {
-                    double s = similarity(term, head_j);
-                    if (min >= s)
-                        min = s;
+    /**
+     * Gets the similarity store. A copy of an affinity function (e.g. deserialized on a server node) attaches the
+     * store of the original on first use: the same store if it is in this JVM, otherwise the store is loaded again
+     * from its file, which has to exist under the same path with the same content on every node. Without a store,
+     * only the terms of the active domain can be mapped and {@link #neighbours(Object)} and
+     * {@link #similarity(Object, Object)} are not available.
+     * @return The similarity store or {@code null} if there is none
+     */
+    private SimilarityStore getSimilarities() {
+        if (!storeAttached) {
+            synchronized (this) {
+                if (!storeAttached) {
+                    similarities = loadStore();
+                    storeAttached = true;
                 }
             }
-            sim_min = min;
         }
+        return similarities;
+    }
 
+    /**
+     * Looks up the similarity store of this affinity function in {@link #STORES} or loads it from its file.
+     * @return The similarity store or {@code null} if it is neither in this JVM nor can be loaded
+     */
+    private SimilarityStore loadStore() {
+        WeakReference<SimilarityStore> reference = storeId == null ? null : STORES.get(storeId);
+        SimilarityStore store = reference == null ? null : reference.get();
+        if (store != null || storeFile == null)
+            return store;
+
+        Path file = Paths.get(storeFile);
+        try {
+            if (storeType.equals(MappedSimilarityMatrix.class.getName()))
+                store = new MappedSimilarityMatrix(file);
+            else if (storeType.equals(MeSHTree.class.getName()))
+                store = MeSHTree.load(file);
+            else
+                store = SimilarityMatrix.load(file);
+        } catch (IOException e) {
+            System.out.println("Could not load the similarities of the affinity function from " + file + ": " +
+                    e.getMessage());
+            return null;
+        }
+        STORES.putIfAbsent(storeId, new WeakReference<>(store));
+        return store;
+    }
 
-        return clusters;
+    /**
+     * Checks that a similarity store can be used by an affinity function, i.e. it is not read from the cluster.
+     * @param similarities The similarity store or {@code null}
+     * @return The similarity store
+     */
+    private static SimilarityStore checkStore(SimilarityStore similarities) {
+        if (similarities instanceof IgniteSimilarityStore)
+            throw new IllegalArgumentException("The similarities of an affinity function must not be read from the " +
+                    "cluster, use a local SimilarityMatrix or MappedSimilarityMatrix instead.");
+        return similarities;
     }
 
 
-    private double similarity(T term1, T term2) {
+//################################# Derived Fragmentation  ########################################
 
-        // TODO ??? ??? ???
 
-        // Map term to CUI (Concept Unique Identifier)
-        HashMap<String, String> map = new HashMap<>();
-        map.put("Asthma", "C0004096");
-        map.put("Cough", "C0010200");
-        map.put("Influenza", "C0021400");
-        map.put("Tibial Fracture", "C0040185");
-        map.put("Ulna Fracture", "C0041601");
 
-        // Get key and return similarity value
-        String key1 = map.get(term1) + "+" + map.get(term2);
-        String key2 = map.get(term2) + "+" + map.get(term1);
 
-        double sim;
-        if (similarities.containsKey(key1))
-            sim = similarities.get(key1);
-        else
-            sim = similarities.get(key2);
-        return sim;
+//##################### Debug  ######################
+
+    /**
+     * Gets a description of the clustering: the number of clusters and partitions and each cluster with its terms.
+     * @return Description of the clustering
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("Clustering: Size=").append(clusters.size())
+                .append(", Partitions=").append(parts);
+        for (Cluster<T> c : clusters)
+            builder.append(System.lineSeparator()).append(c);
+        return builder.toString();
     }
 
 
+//##################### Snapshot & Serialization  ######################
+
     /**
-     * This method identifies the cluster to a given term.
-     * @param term The term to match to a cluster
-     * @return Number of the cluster
+     * Takes a snapshot of the clustering, which can be written to a file and restored by
+     * {@link #fromSnapshot(ClusteringSnapshot, SimilarityStore)}. The terms are stored as strings.
+     * @return Snapshot of the clustering
      */
-    private int identifyCluster(T term) {
+    public ClusteringSnapshot snapshot() {
+        String[] names = new String[terms.length];
+        int[] termCluster = new int[terms.length];
+        for (int i = 0; i < terms.length; i++) {
+            names[i] = terms[i].toString();
+            termCluster[i] = clusterTable.get(terms[i]);
+        }
+        return new ClusteringSnapshot(alpha, partsPerCluster, names, termCluster, heads.clone(),
+                clusterWeights.clone(), storeFingerprint);
+    }
 
-        // Identify the cluster to which this term belongs
-        // First check if term is equal to the head of i-th cluster (store heads during check for further identification)
-        T[] head = (T[]) new Object[clusters.size()];
-        for (int i = 0; i < clusters.size(); i++) {
-            head[i] = clusters.get(i).getHead();
-            if (term.equals(head[i])) {
-                System.out.println("return cluster=partition=" + i);        // Debug
-                return i;
-            }
+    /**
+     * Replaces this affinity function by its compact {@link SerializedForm} when it is serialized (e.g. for peer
+     * class loading), if the terms are strings. Otherwise the default serialization is used.
+     */
+    private Object writeReplace() {
+        for (T term : terms) {
+            if (!(term instanceof String))
+                return this;
         }
+        ByteBuffer buffer = snapshot().toBuffer();
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return new SerializedForm(bytes, neighbourCount, storeId, storeFile, storeType);
+    }
 
-        // No head matched -> calculate similarity of t to each of the heads and find maximum similarity
-        double max = -1;
-        int argMax = -1;
-        for (int i = 0; i < head.length; i++) {
-            double sim = similarity(term, head[i]);
-            if (max < sim) {
-                max = sim;
-                argMax = i;
-            }
+    /**
+     * Serialized form of an affinity function: the binary snapshot of the clustering instead of the object graph of
+     * the clusters and lookup tables, which are rebuilt on deserialization. The similarity store is not serialized,
+     * only its identifier and file, by which the deserialized affinity function attaches it on first use (see
+     * {@link #getSimilarities()}). Hence the serialized form only grows with the active domain, not with the store.
+     */
+    private static class SerializedForm implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final byte[] snapshot;
+
+        private final int neighbourCount;
+
+        private final String storeId;
+
+        private final String storeFile;
+
+        private final String storeType;
+
+        SerializedForm(byte[] snapshot, int neighbourCount, String storeId, String storeFile, String storeType) {
+            this.snapshot = snapshot;
+            this.neighbourCount = neighbourCount;
+            this.storeId = storeId;
+            this.storeFile = storeFile;
+            this.storeType = storeType;
         }
 
-        // Debug
-        System.out.println("return cluster=partition=" + argMax);
-        return argMax;
+        private Object readResolve() throws ObjectStreamException {
+            try {
+                ClusteringSnapshot clustering = ClusteringSnapshot.read(ByteBuffer.wrap(snapshot));
+                MyAffinityFunction<String> affinity = new MyAffinityFunction<>(clustering, clustering.getTerms(),
+                        null);
+                affinity.storeId = storeId;
+                affinity.storeFile = storeFile;
+                affinity.storeType = storeType;
+                affinity.storeAttached = false;
+                return affinity.setNeighbourCount(neighbourCount);
+            } catch (IOException e) {
+                throw new InvalidObjectException(e.getMessage());
+            }
+        }
     }
 
 
-//################################# Derived Fragmentation  ########################################
+//##################### Binary Keys  ######################
 
+    /**
+     * Binary type of a key class together with the fields needed for the partition mapping
+     */
+    private static class BinaryKeyType {
 
+        private final int typeId;
+
+        /**
+         * True for {@link IllKey} (fields "disease" and "personID"), false for {@link InfoKey}
+         * (field "affinityPartition")
+         */
+        private final boolean ill;
+
+        private final BinaryField[] fields;
+
+        BinaryKeyType(BinaryType type, boolean ill, String... fieldNames) {
+            this.typeId = type.typeId();
+            this.ill = ill;
+            this.fields = new BinaryField[fieldNames.length];
+            for (int i = 0; i < fieldNames.length; i++)
+                fields[i] = type.field(fieldNames[i]);
+        }
+    }
 
 
 //##################### MAIN-Method  ######################
@@ -408,10 +1059,77 @@ public class MyAffinityFunction<T> implements AffinityFunction, Serializable {
         // Prepare clustering test
         MyAffinityFunction<String> maf = new MyAffinityFunction<>(0.2, terms);
 
-        // Test clustering
+        // Test clustering (expected: {Asthma: Cough, Influenza}, {Ulna Fracture: Tibial Fracture})
         ArrayList<Cluster<String>> clusters = maf.clusters;
-        for (Cluster<String> c : clusters) {
-            System.out.println(c);
+        System.out.println(maf);
+        boolean passed = clusters.size() == 2
+                && clusters.get(0).getHead().equals("Asthma")
+                && clusters.get(0).getAdom().equals(new HashSet<>(Arrays.asList("Cough", "Influenza")))
+                && clusters.get(1).getHead().equals("Ulna Fracture")
+                && clusters.get(1).getAdom().equals(new HashSet<>(Collections.singletonList("Tibial Fracture")));
+        System.out.println("Clustering test " + (passed ? "passed" : "FAILED"));
+
+        // Test neighbours (expected: Asthma: [Cough, Influenza], Ulna Fracture: [Tibial Fracture])
+        System.out.println("Neighbours of Asthma: " + maf.neighbours("Asthma"));
+        passed = maf.neighbours("Asthma").equals(Arrays.asList("Cough", "Influenza"))
+                && maf.neighbours("Ulna Fracture").equals(Collections.singletonList("Tibial Fracture"));
+        System.out.println("Neighbour test " + (passed ? "passed" : "FAILED"));
+
+        // Test serialization (expected: the serialized form does not grow with the store, the copy attaches the store
+        // of this JVM or loads it again from its file)
+        try {
+            String[] store = Arrays.copyOf(terms, terms.length + 2000);
+            for (int i = terms.length; i < store.length; i++)
+                store[i] = "Term " + i;
+            SimilarityMatrix matrix = new SimilarityMatrix(store);
+            matrix.set(0, 1, 0.5);
+            matrix.set(0, 2, 0.4);
+            matrix.set(3, 4, 0.3);
+            matrix.set(0, terms.length, 0.6);
+            Path file = Files.createTempFile("similarities", ".bsim");
+            try {
+                matrix.write(file);
+                MyAffinityFunction<String> original = new MyAffinityFunction<>(0.2, terms,
+                        SimilarityMatrix.load(file));
+                byte[] bytes = serialize(original);
+                MyAffinityFunction<String> copy = deserialize(bytes);
+                STORES.clear();
+                MyAffinityFunction<String> loaded = deserialize(bytes);
+                System.out.println("Serialized size: " + bytes.length + " bytes (store file: " + Files.size(file) +
+                        " bytes)");
+                passed = bytes.length < 4096
+                        && copy.clusterOf("Cough") == original.clusterOf("Cough")
+                        && copy.clusterOf(store[terms.length]) == 0
+                        && copy.similarity("Asthma", "Cough") == original.similarity("Asthma", "Cough")
+                        && loaded.similarity("Asthma", "Cough") == original.similarity("Asthma", "Cough")
+                        && loaded.neighbours("Asthma").equals(original.neighbours("Asthma"));
+                // A store which was not loaded from a file can not be attached in another JVM
+                bytes = serialize(new MyAffinityFunction<>(0.2, terms, matrix));
+                STORES.clear();
+                MyAffinityFunction<String> detached = deserialize(bytes);
+                passed &= detached.clusterOf("Cough") == original.clusterOf("Cough")
+                        && detached.similarity("Asthma", "Cough") == 0 && detached.neighbours("Asthma").isEmpty();
+            } finally {
+                Files.deleteIfExists(file);
+            }
+            System.out.println("Serialization test " + (passed ? "passed" : "FAILED"));
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static byte[] serialize(Object object) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(object);
+        }
+        return bytes.toByteArray();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static MyAffinityFunction<String> deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return (MyAffinityFunction<String>) in.readObject();
         }
     }
 
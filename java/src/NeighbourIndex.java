@@ -0,0 +1,219 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * This class is a nearest-neighbour index of the active domain of the relaxation attribute. For each term it stores
+ * the k most similar other terms with a similarity of at least alpha, ordered by decreasing similarity (ties by
+ * increasing term index). The relaxation candidates of a query term can thus be read in O(k) instead of scanning the
+ * similarities to all terms.
+ * <p>
+ * The neighbours are kept in primitive arrays in a compressed row layout: the neighbours of the term with index t are
+ * {@code neighbours[start[t]..start[t+1]-1]} with the similarities in {@code scores}. The index is built in parallel
+ * with fork-join, which costs O(n^2) similarity lookups for n terms.
+ */
+public class NeighbourIndex {
+
+    /**
+     * Number of terms below which a range of terms is processed sequentially
+     */
+    private static final int SEQUENTIAL_THRESHOLD = 64;
+
+    /**
+     * Start of the neighbours of each term in {@link #neighbours} (indexed by the term index, n+1 entries)
+     */
+    private final int[] start;
+
+    /**
+     * Term indices of the neighbours of all terms
+     */
+    private final int[] neighbours;
+
+    /**
+     * Similarities of the neighbours of all terms
+     */
+    private final float[] scores;
+
+    /**
+     * Ids of the terms in the similarity store in increasing order, to find the term index of an id
+     */
+    private final int[] sortedIds;
+
+    /**
+     * Term index of each id in {@link #sortedIds}
+     */
+    private final int[] indexOfId;
+
+
+//##################### Constructors ######################
+
+    /**
+     * Builds the nearest-neighbour index of an active domain.
+     *
+     * @param similarities Similarities of the terms
+     * @param ids          Id in the similarity store of each term of the active domain
+     * @param k            Maximal number of neighbours per term
+     * @param alpha        Minimal similarity of a neighbour
+     */
+    public NeighbourIndex(SimilarityStore similarities, int[] ids, int k, double alpha) {
+        if (k < 1)
+            throw new IllegalArgumentException("Each term needs at least one neighbour.");
+        int n = ids.length;
+        k = Math.min(k, Math.max(1, n - 1));
+        if ((long) n * k > Integer.MAX_VALUE - 8)
+            throw new IllegalArgumentException("Too many neighbours for an in-memory index: " + n + " * " + k);
+
+        // Find the top k of each term in fixed slots of k entries
+        int[] count = new int[n];
+        int[] slots = new int[n * k];
+        float[] slotScores = new float[n * k];
+        ForkJoinPool.commonPool().invoke(new Scan(similarities, ids, k, alpha, count, slots, slotScores, 0, n));
+
+        // Compact the slots
+        start = new int[n + 1];
+        for (int t = 0; t < n; t++)
+            start[t + 1] = start[t] + count[t];
+        neighbours = new int[start[n]];
+        scores = new float[start[n]];
+        for (int t = 0; t < n; t++) {
+            System.arraycopy(slots, t * k, neighbours, start[t], count[t]);
+            System.arraycopy(slotScores, t * k, scores, start[t], count[t]);
+        }
+
+        // Reverse lookup of the ids
+        long[] pairs = new long[n];
+        for (int t = 0; t < n; t++)
+            pairs[t] = ((long) ids[t] << 32) | t;
+        Arrays.sort(pairs);
+        sortedIds = new int[n];
+        indexOfId = new int[n];
+        for (int i = 0; i < n; i++) {
+            sortedIds[i] = (int) (pairs[i] >>> 32);
+            indexOfId[i] = (int) pairs[i];
+        }
+    }
+
+
+//##################### Getter ######################
+
+    /**
+     * Gets the index of a term in the active domain by its id in the similarity store
+     * @param id Id of the term in the similarity store
+     * @return Index of the term or -1 if the term is not in the active domain
+     */
+    public int index(int id) {
+        int i = Arrays.binarySearch(sortedIds, id);
+        return i < 0 ? -1 : indexOfId[i];
+    }
+
+    /**
+     * Gets the number of neighbours of a term
+     * @param term Index of the term
+     * @return Number of neighbours
+     */
+    public int count(int term) {
+        return start[term + 1] - start[term];
+    }
+
+    /**
+     * Gets the i-th most similar neighbour of a term
+     * @param term Index of the term
+     * @param i    Rank of the neighbour, {@code 0 <= i < count(term)}
+     * @return Index of the neighbour
+     */
+    public int neighbour(int term, int i) {
+        return neighbours[start[term] + i];
+    }
+
+    /**
+     * Gets the similarity of the i-th most similar neighbour of a term
+     * @param term Index of the term
+     * @param i    Rank of the neighbour, {@code 0 <= i < count(term)}
+     * @return Similarity value
+     */
+    public double score(int term, int i) {
+        return scores[start[term] + i];
+    }
+
+
+//##################### Fork-Join Tasks ######################
+
+    /**
+     * Finds the top k neighbours of a range of terms by scanning the similarities to all terms. The slots of each
+     * term are kept sorted by insertion, which is cheap for a small k.
+     */
+    private static class Scan extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final SimilarityStore similarities;
+
+        private final int[] ids;
+
+        private final int k;
+
+        private final double alpha;
+
+        private final int[] count;
+
+        private final int[] slots;
+
+        private final float[] slotScores;
+
+        private final int from;
+
+        private final int to;
+
+        Scan(SimilarityStore similarities, int[] ids, int k, double alpha, int[] count, int[] slots,
+             float[] slotScores, int from, int to) {
+            this.similarities = similarities;
+            this.ids = ids;
+            this.k = k;
+            this.alpha = alpha;
+            this.count = count;
+            this.slots = slots;
+            this.slotScores = slotScores;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SEQUENTIAL_THRESHOLD) {
+                for (int t = from; t < to; t++)
+                    scan(t);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new Scan(similarities, ids, k, alpha, count, slots, slotScores, from, mid),
+                    new Scan(similarities, ids, k, alpha, count, slots, slotScores, mid, to));
+        }
+
+        private void scan(int t) {
+            int base = t * k;
+            int size = 0;
+            for (int u = 0; u < ids.length; u++) {
+                if (u == t)
+                    continue;
+                double similarity = similarities.similarity(ids[t], ids[u]);
+                if (similarity < alpha)
+                    continue;
+                float sim = (float) similarity;
+                if (size == k && sim <= slotScores[base + k - 1])
+                    continue;
+
+                // Insert behind all neighbours with at least the same similarity
+                int pos = size == k ? k - 1 : size++;
+                while (pos > 0 && slotScores[base + pos - 1] < sim) {
+                    slots[base + pos] = slots[base + pos - 1];
+                    slotScores[base + pos] = slotScores[base + pos - 1];
+                    pos--;
+                }
+                slots[base + pos] = u;
+                slotScores[base + pos] = sim;
+            }
+            count[t] = size;
+        }
+    }
+
+}
@@ -0,0 +1,26 @@
+import java.util.List;
+
+/**
+ * This interface fetches the result of a SPARQL query page by page (e.g. from the MeSH SPARQL endpoint or from a
+ * local dataset, see {@link MeSHSPARQL}). The pages are identified by their offset, s.t. several pages can be fetched
+ * concurrently and a fetch can be resumed at any page. Implementations must be thread-safe.
+ */
+public interface PageFetcher {
+
+    /**
+     * Gets the maximal number of records per page
+     * @return Page size
+     */
+    int pageSize();
+
+    /**
+     * Fetches the records of the page starting at the given offset. A page with less than {@link #pageSize()}
+     * records is the last one.
+     *
+     * @param offset Offset of the first record of the page
+     * @return The records of the page (formatted as csv lines without line separator)
+     * @throws Exception If the page can not be fetched
+     */
+    List<String> fetch(long offset) throws Exception;
+
+}
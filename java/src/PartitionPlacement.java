@@ -0,0 +1,366 @@
+import org.apache.ignite.cluster.ClusterNode;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * This class maps the partitions of the clustering-based fragmentation to the nodes of the cluster. The partitions
+ * are weighted by their estimated data volume (e.g. the expected number of rows of a cluster) and the mapping is
+ * obtained by the greedy bin packing heuristic "largest processing time first": the partitions are placed in order
+ * of decreasing weight, each on the node with the smallest load so far. Every copy of a partition (primary and
+ * backups) is placed on a distinct node and adds the weight of the partition to the load of its node.
+ * <p>
+ * On a topology change the previous mapping is kept as far as possible to minimize the rebalancing: a copy of a
+ * partition stays on its previous node as long as the node is still alive and not loaded beyond its fair share of the
+ * total volume (if the previous primary left, a surviving backup becomes the primary). Only the copies of partitions
+ * whose node left and the copies that exceed the fair share of a node are placed anew. Afterwards, copies are moved
+ * from the nodes above their share to the least loaded nodes (e.g. to a node that just joined), and the primary
+ * copies are balanced by swapping the roles of the primary and a backup copy of a partition.
+ * <p>
+ * The mapping only depends on the weights, the previous mapping and the order of the nodes in the topology snapshot,
+ * s.t. all nodes of the cluster compute the same mapping.
+ */
+public class PartitionPlacement {
+
+    /**
+     * Estimated data volume of each partition (indexed by the partition number)
+     */
+    private final double[] weights;
+
+
+//##################### Constructors ######################
+
+    /**
+     * Creates a placement for weighted partitions
+     * @param weights Estimated data volume of each partition (indexed by the partition number)
+     */
+    public PartitionPlacement(double[] weights) {
+        this.weights = weights;
+    }
+
+
+//##################### Placement ######################
+
+    /**
+     * Maps each partition to a primary node and to backup nodes. The outer list is indexed by the partition
+     * number, the inner lists contain the primary node first and then the backup nodes.
+     *
+     * @param nodes   The nodes of the cluster
+     * @param backups Number of backups of each partition (limited by the number of nodes)
+     * @return Assignment of partitions to nodes
+     */
+    public List<List<ClusterNode>> assign(List<ClusterNode> nodes, int backups) {
+        return assign(nodes, backups, Collections.nCopies(weights.length, null));
+    }
+
+    /**
+     * Maps each partition to a primary node and to backup nodes and keeps the previous mapping as far as possible.
+     * The outer list is indexed by the partition number, the inner lists contain the primary node first and then
+     * the backup nodes.
+     *
+     * @param nodes    The nodes of the cluster
+     * @param backups  Number of backups of each partition (limited by the number of nodes)
+     * @param previous Previous assignment of each partition (indexed by the partition number, the lists may be
+     *                 {@code null} or contain nodes that already left)
+     * @return Assignment of partitions to nodes
+     */
+    public List<List<ClusterNode>> assign(List<ClusterNode> nodes, int backups, List<List<ClusterNode>> previous) {
+        if (nodes.isEmpty())
+            throw new IllegalArgumentException("Can not assign partitions to an empty topology.");
+
+        int copies = Math.min(backups, nodes.size() - 1) + 1;
+        double[] load = new double[nodes.size()];
+        int[] count = new int[nodes.size()];
+        Integer[] order = byDecreasingWeight();
+
+        // Fair share of the total volume per node
+        double total = 0;
+        for (double w : weights)
+            total += w * copies;
+        double share = total / nodes.size() * (1 + 1e-9);
+
+        HashMap<UUID, Integer> index = new HashMap<>(nodes.size() * 2);
+        for (int i = 0; i < nodes.size(); i++)
+            index.put(nodes.get(i).id(), i);
+
+        // Keep the copies on their previous nodes if these are alive and not loaded beyond their share
+        List<List<ClusterNode>> result = new ArrayList<>(Collections.nCopies(weights.length, null));
+        boolean[][] used = new boolean[weights.length][];
+        for (int partition : order) {
+            List<ClusterNode> assigned = new ArrayList<>(copies);
+            used[partition] = new boolean[nodes.size()];
+            List<ClusterNode> prev = partition < previous.size() ? previous.get(partition) : null;
+            if (prev != null) {
+                for (ClusterNode prevNode : prev) {
+                    Integer node = index.get(prevNode.id());
+                    if (assigned.size() == copies || node == null || used[partition][node])
+                        continue;
+                    if (count[node] > 0 && load[node] + weights[partition] > share)
+                        continue;
+                    used[partition][node] = true;
+                    load[node] += weights[partition];
+                    count[node]++;
+                    assigned.add(nodes.get(node));
+                }
+            }
+            result.set(partition, assigned);
+        }
+
+        // Place the remaining copies, each on the unused node with the smallest load
+        for (int partition : order) {
+            List<ClusterNode> assigned = result.get(partition);
+            while (assigned.size() < copies) {
+                int node = leastLoaded(load, count, used[partition]);
+                used[partition][node] = true;
+                load[node] += weights[partition];
+                count[node]++;
+                assigned.add(nodes.get(node));
+            }
+        }
+
+        // Move copies from nodes above their share to the least loaded nodes, then balance the primaries
+        int[][] placed = toIndices(result, index);
+        repairLoad(placed, load, count, used, share);
+        repairPrimaries(placed, nodes.size());
+        for (int partition = 0; partition < placed.length; partition++) {
+            List<ClusterNode> assigned = result.get(partition);
+            for (int i = 0; i < placed[partition].length; i++)
+                assigned.set(i, nodes.get(placed[partition][i]));
+        }
+        return result;
+    }
+
+    /**
+     * Moves copies from the most loaded node to the least loaded node as long as the most loaded node exceeds its
+     * share. Each move takes the copy that balances the two nodes best, the primary copies first. A move is only
+     * done if the new load of both nodes is below the old load of the most loaded node, hence the sum of squared loads
+     * decreases with each move and the repair terminates.
+     */
+    private void repairLoad(int[][] placed, double[] load, int[] count, boolean[][] used, double share) {
+        while (true) {
+            int src = 0;
+            for (int node = 1; node < load.length; node++) {
+                if (load[node] > load[src])
+                    src = node;
+            }
+            if (load[src] <= share)
+                return;
+            int dst = leastLoaded(load, count, new boolean[load.length]);
+
+            // Best copy on src which is not on dst yet: primaries first, then by the balance of src and dst
+            int bestPartition = -1;
+            int bestCopy = -1;
+            double bestGap = Double.MAX_VALUE;
+            for (int primaries = 1; primaries >= 0 && bestPartition < 0; primaries--) {
+                for (int partition = 0; partition < placed.length; partition++) {
+                    double w = weights[partition];
+                    if (used[partition][dst] || w <= 0 || load[dst] + w >= load[src])
+                        continue;
+                    for (int i = primaries == 1 ? 0 : 1; i < (primaries == 1 ? 1 : placed[partition].length); i++) {
+                        double gap = Math.abs((load[src] - w) - (load[dst] + w));
+                        if (placed[partition][i] == src && gap < bestGap) {
+                            bestPartition = partition;
+                            bestCopy = i;
+                            bestGap = gap;
+                        }
+                    }
+                }
+            }
+            if (bestPartition < 0)
+                return;
+
+            double w = weights[bestPartition];
+            placed[bestPartition][bestCopy] = dst;
+            used[bestPartition][src] = false;
+            used[bestPartition][dst] = true;
+            load[src] -= w;
+            load[dst] += w;
+            count[src]--;
+            count[dst]++;
+        }
+    }
+
+    /**
+     * Balances the volume of the primary copies by swapping the roles of a primary and a backup copy of a partition
+     * (no data is moved), from the node with the largest primary volume to the node with the smallest one.
+     */
+    private void repairPrimaries(int[][] placed, int nodes) {
+        double[] primary = new double[nodes];
+        double total = 0;
+        for (int partition = 0; partition < placed.length; partition++) {
+            primary[placed[partition][0]] += weights[partition];
+            total += weights[partition];
+        }
+        double share = total / nodes * (1 + 1e-9);
+
+        while (true) {
+            int src = 0;
+            int dst = 0;
+            for (int node = 1; node < nodes; node++) {
+                if (primary[node] > primary[src])
+                    src = node;
+                if (primary[node] < primary[dst])
+                    dst = node;
+            }
+            if (primary[src] <= share)
+                return;
+
+            int best = -1;
+            int bestCopy = -1;
+            double bestGap = Double.MAX_VALUE;
+            for (int partition = 0; partition < placed.length; partition++) {
+                double w = weights[partition];
+                if (placed[partition][0] != src || w <= 0 || primary[dst] + w >= primary[src])
+                    continue;
+                for (int i = 1; i < placed[partition].length; i++) {
+                    double gap = Math.abs((primary[src] - w) - (primary[dst] + w));
+                    if (placed[partition][i] == dst && gap < bestGap) {
+                        best = partition;
+                        bestCopy = i;
+                        bestGap = gap;
+                    }
+                }
+            }
+            if (best < 0)
+                return;
+
+            placed[best][bestCopy] = src;
+            placed[best][0] = dst;
+            primary[src] -= weights[best];
+            primary[dst] += weights[best];
+        }
+    }
+
+    /**
+     * Converts an assignment to the positions of the nodes in the topology.
+     */
+    private static int[][] toIndices(List<List<ClusterNode>> assignment, HashMap<UUID, Integer> index) {
+        int[][] placed = new int[assignment.size()][];
+        for (int partition = 0; partition < placed.length; partition++) {
+            List<ClusterNode> assigned = assignment.get(partition);
+            placed[partition] = new int[assigned.size()];
+            for (int i = 0; i < assigned.size(); i++)
+                placed[partition][i] = index.get(assigned.get(i).id());
+        }
+        return placed;
+    }
+
+    /**
+     * Computes the volume of the partitions on each node (primary and backup copies).
+     *
+     * @param assignment Assignment of partitions to nodes
+     * @param nodes      The nodes of the cluster
+     * @param primaries  Whether only the primary copies are counted
+     * @return Volume of each node (in the order of the nodes)
+     */
+    public double[] loads(List<List<ClusterNode>> assignment, List<ClusterNode> nodes, boolean primaries) {
+        HashMap<UUID, Integer> index = new HashMap<>(nodes.size() * 2);
+        for (int i = 0; i < nodes.size(); i++)
+            index.put(nodes.get(i).id(), i);
+        double[] load = new double[nodes.size()];
+        for (int partition = 0; partition < assignment.size(); partition++) {
+            List<ClusterNode> assigned = assignment.get(partition);
+            for (int i = 0; i < (primaries ? Math.min(1, assigned.size()) : assigned.size()); i++)
+                load[index.get(assigned.get(i).id())] += weights[partition];
+        }
+        return load;
+    }
+
+    /**
+     * Gets the partition numbers ordered by decreasing weight (ties by increasing partition number).
+     */
+    private Integer[] byDecreasingWeight() {
+        Integer[] order = new Integer[weights.length];
+        for (int i = 0; i < order.length; i++)
+            order[i] = i;
+        Arrays.sort(order, Comparator.comparingDouble((Integer p) -> -weights[p]).thenComparingInt(p -> p));
+        return order;
+    }
+
+    /**
+     * Gets the unused node with the smallest load, ties are broken by the number of partitions on the node and then
+     * by the position of the node in the topology.
+     */
+    static int leastLoaded(double[] load, int[] count, boolean[] used) {
+        int best = -1;
+        for (int node = 0; node < load.length; node++) {
+            if (used[node])
+                continue;
+            if (best < 0 || load[node] < load[best] || (load[node] == load[best] && count[node] < count[best]))
+                best = node;
+        }
+        return best;
+    }
+
+
+//##################### MAIN-Method  ######################
+
+    /**
+     * Test unit
+     *
+     * @param args
+     */
+    public static void main(String[] args) {
+
+        // 70 partitions of equal weight with one backup on 3 nodes, then a fourth node joins
+        double[] weights = new double[70];
+        Arrays.fill(weights, 1);
+        PartitionPlacement placement = new PartitionPlacement(weights);
+        List<ClusterNode> nodes = new ArrayList<>();
+        for (String name : new String[]{"A", "B", "C", "D"})
+            nodes.add(testNode(name));
+
+        List<List<ClusterNode>> before = placement.assign(nodes.subList(0, 3), 1);
+        List<List<ClusterNode>> after = placement.assign(nodes, 1, before);
+        int moved = 0;
+        for (int partition = 0; partition < weights.length; partition++) {
+            if (!after.get(partition).containsAll(before.get(partition)))
+                moved++;
+        }
+
+        // Test balance (expected: 35 copies and 17 or 18 primaries per node, only the copies of the new node moved)
+        double[] load = placement.loads(after, nodes, false);
+        double[] primary = placement.loads(after, nodes, true);
+        System.out.println("Loads: " + Arrays.toString(load) + ", primaries: " + Arrays.toString(primary) +
+                ", moved partitions: " + moved);
+        boolean passed = moved == 35;
+        for (int node = 0; node < nodes.size(); node++)
+            passed &= load[node] == 35 && primary[node] >= 17 && primary[node] <= 18;
+        for (List<ClusterNode> assigned : after)
+            passed &= assigned.size() == 2 && assigned.get(0) != assigned.get(1);
+        System.out.println("Join test " + (passed ? "passed" : "FAILED"));
+
+        // Test leave (expected: balanced again on the remaining nodes)
+        List<List<ClusterNode>> left = placement.assign(nodes.subList(1, 4), 1, after);
+        load = placement.loads(left, nodes.subList(1, 4), false);
+        System.out.println("Loads after leave: " + Arrays.toString(load));
+        passed = true;
+        for (double l : load)
+            passed &= Math.abs(l - 140.0 / 3) < 1;
+        System.out.println("Leave test " + (passed ? "passed" : "FAILED"));
+    }
+
+    /**
+     * Creates a node with a name based id for the test unit.
+     */
+    private static ClusterNode testNode(String name) {
+        UUID id = UUID.nameUUIDFromBytes(name.getBytes());
+        return (ClusterNode) Proxy.newProxyInstance(ClusterNode.class.getClassLoader(),
+                new Class<?>[]{ClusterNode.class}, (proxy, method, methodArgs) -> {
+                    switch (method.getName()) {
+                        case "id": return id;
+                        case "toString": return name;
+                        case "hashCode": return id.hashCode();
+                        case "equals": return proxy == methodArgs[0];
+                        default: throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+}
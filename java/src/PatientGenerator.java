@@ -0,0 +1,390 @@
+import com.github.javafaker.Faker;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+
+/**
+ * This class generates synthetic patients (a person's information and diseases, see {@link Ill} and {@link Info})
+ * for load tests and benchmarks. The names and addresses are drawn from pools, which are filled once by a single
+ * {@link Faker}, and the diseases are drawn from the given terms with a Zipf distribution: the term of rank r (in the
+ * given order) has a frequency proportional to 1/r^s with the skew s (s = 0 is uniform).
+ * <p>
+ * The generation is reproducible: the random numbers of a patient are derived from the seed and the person's id only,
+ * s.t. a patient is the same regardless of the order or the threads in which the patients are generated. Ranges of
+ * patients are generated in parallel with fork-join.
+ */
+public class PatientGenerator {
+
+    /**
+     * Default skew of the disease frequencies
+     */
+    public static final double DFLT_SKEW = 1.0;
+
+    /**
+     * Default maximal number of diseases per patient
+     */
+    public static final int DFLT_MAX_DISEASES = 3;
+
+    /**
+     * Number of patients below which a range of patients is generated sequentially
+     */
+    private static final int SEQUENTIAL_THRESHOLD = 1024;
+
+    /**
+     * Multiplier to spread the ids of the persons over the seeds
+     */
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    private final long seed;
+
+    private final String[] diseases;
+
+    private String[] meshIDs;
+
+    private final String[] names;
+
+    private final String[] addresses;
+
+    /**
+     * Cumulative distribution of the diseases
+     */
+    private double[] cdf;
+
+    private int maxDiseases = DFLT_MAX_DISEASES;
+
+
+//##################### Constructors ######################
+
+    /**
+     * Creates a generator and fills the pools of names and addresses.
+     *
+     * @param seed     Seed of the generator
+     * @param diseases Terms of the diseases, ordered by their rank for the Zipf distribution
+     * @param poolSize Number of distinct names and addresses
+     */
+    public PatientGenerator(long seed, String[] diseases, int poolSize) {
+        if (diseases.length == 0)
+            throw new IllegalArgumentException("At least one disease is needed.");
+        if (poolSize < 1)
+            throw new IllegalArgumentException("The pool size has to be positive.");
+
+        this.seed = seed;
+        this.diseases = diseases.clone();
+        this.names = new String[poolSize];
+        this.addresses = new String[poolSize];
+        Faker faker = new Faker(new Random(seed));
+        for (int i = 0; i < poolSize; i++) {
+            names[i] = faker.name().fullName();
+            addresses[i] = faker.address().fullAddress();
+        }
+        setSkew(DFLT_SKEW);
+    }
+
+    /**
+     * Creates a generator for the descriptors of a dictionary, which are ranked in the order of their ids.
+     *
+     * @param seed       Seed of the generator
+     * @param dictionary Dictionary of the MeSH descriptors
+     * @param poolSize   Number of distinct names and addresses
+     * @return The generator
+     */
+    public static PatientGenerator fromDictionary(long seed, TermDictionary dictionary, int poolSize) {
+        String[] diseases = new String[dictionary.size()];
+        String[] meshIDs = new String[dictionary.size()];
+        for (int i = 0; i < diseases.length; i++) {
+            diseases[i] = dictionary.name(i);
+            meshIDs[i] = dictionary.id(i);
+        }
+        return new PatientGenerator(seed, diseases, poolSize).setMeshIDs(meshIDs);
+    }
+
+
+//##################### Generation ######################
+
+    /**
+     * Generates a patient.
+     *
+     * @param personID ID of the person
+     * @return The patient (always the same for the same seed and settings)
+     */
+    public Patient patient(int personID) {
+        SplittableRandom random = new SplittableRandom(seed ^ (personID * GOLDEN_GAMMA));
+        String name = names[random.nextInt(names.length)];
+        String address = addresses[random.nextInt(addresses.length)];
+
+        // Distinct diseases (a repeated disease is drawn again a few times and then dropped)
+        int count = 1 + random.nextInt(Math.min(maxDiseases, diseases.length));
+        int[] drawn = new int[count];
+        int n = 0;
+        for (int attempt = 0; n < count && attempt < 4 * count; attempt++) {
+            int disease = disease(random.nextDouble());
+            boolean repeated = false;
+            for (int i = 0; i < n && !repeated; i++)
+                repeated = drawn[i] == disease;
+            if (!repeated)
+                drawn[n++] = disease;
+        }
+        return new Patient(personID, name, address, Arrays.copyOf(drawn, n));
+    }
+
+    /**
+     * Generates the patients with the ids from..to-1 in parallel.
+     *
+     * @param from   First person's id (inclusive)
+     * @param to     Last person's id (exclusive)
+     * @param action Action for each patient (called concurrently, in no particular order)
+     */
+    public void forEach(int from, int to, Consumer<Patient> action) {
+        if (from < to)
+            ForkJoinPool.commonPool().invoke(new Generate(from, to, action));
+    }
+
+    /**
+     * Draws a disease by its cumulative distribution.
+     */
+    private int disease(double u) {
+        int i = Arrays.binarySearch(cdf, u);
+        if (i < 0)
+            i = -i - 1;
+        return Math.min(i, diseases.length - 1);
+    }
+
+
+//##################### Getter & Setter ######################
+
+    /**
+     * Sets the skew s of the Zipf distribution of the diseases.
+     * @param skew Skew (0 for uniform frequencies)
+     * @return This generator for chaining
+     */
+    public PatientGenerator setSkew(double skew) {
+        if (skew < 0)
+            throw new IllegalArgumentException("The skew must not be negative.");
+
+        double[] cdf = new double[diseases.length];
+        double sum = 0;
+        for (int r = 0; r < cdf.length; r++) {
+            sum += 1 / Math.pow(r + 1, skew);
+            cdf[r] = sum;
+        }
+        for (int r = 0; r < cdf.length; r++)
+            cdf[r] /= sum;
+        this.cdf = cdf;
+        return this;
+    }
+
+    /**
+     * Sets the maximal number of diseases per patient (the number is uniform in 1..max).
+     * @param maxDiseases Maximal number of diseases
+     * @return This generator for chaining
+     */
+    public PatientGenerator setMaxDiseases(int maxDiseases) {
+        if (maxDiseases < 1)
+            throw new IllegalArgumentException("A patient has at least one disease.");
+        this.maxDiseases = maxDiseases;
+        return this;
+    }
+
+    /**
+     * Sets the MeSH ids of the diseases (in the order of the diseases), which are stored in the {@link Ill}s.
+     * @param meshIDs The MeSH ids
+     * @return This generator for chaining
+     */
+    public PatientGenerator setMeshIDs(String[] meshIDs) {
+        if (meshIDs.length != diseases.length)
+            throw new IllegalArgumentException("There has to be one MeSH id per disease.");
+        this.meshIDs = meshIDs.clone();
+        return this;
+    }
+
+    public String[] getDiseases() {
+        return diseases.clone();
+    }
+
+
+//##################### Patient ######################
+
+    /**
+     * A generated patient: the person's information and diseases.
+     */
+    public class Patient {
+
+        private final int personID;
+
+        private final String name;
+
+        private final String address;
+
+        private final int[] diseaseIndices;
+
+        private Patient(int personID, String name, String address, int[] diseaseIndices) {
+            this.personID = personID;
+            this.name = name;
+            this.address = address;
+            this.diseaseIndices = diseaseIndices;
+        }
+
+        public int getPersonID() {
+            return personID;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getAddress() {
+            return address;
+        }
+
+        /**
+         * Gets the diseases of the patient
+         * @return Terms of the diseases
+         */
+        public String[] getDiseases() {
+            String[] terms = new String[diseaseIndices.length];
+            for (int i = 0; i < terms.length; i++)
+                terms[i] = diseases[diseaseIndices[i]];
+            return terms;
+        }
+
+        /**
+         * Creates the {@link Ill} entries of the patient (with the MeSH ids of the diseases if they are set)
+         * @return One {@link Ill} per disease
+         */
+        public Ill[] ills() {
+            Ill[] ills = new Ill[diseaseIndices.length];
+            for (int i = 0; i < ills.length; i++) {
+                int d = diseaseIndices[i];
+                ills[i] = new Ill(new IllKey(personID, diseases[d]), meshIDs == null ? null : meshIDs[d]);
+            }
+            return ills;
+        }
+
+        /**
+         * Creates an {@link Info} entry of the patient.
+         * @param affinityPartition Partition of the replica (see {@link InfoKey})
+         * @return The {@link Info}
+         */
+        public Info info(int affinityPartition) {
+            return new Info(new InfoKey(personID, affinityPartition), name, address);
+        }
+
+        int diseaseIndex(int i) {
+            return diseaseIndices[i];
+        }
+
+        int diseaseCount() {
+            return diseaseIndices.length;
+        }
+    }
+
+    /**
+     * Generates a range of patients, large ranges are split in halves.
+     */
+    private class Generate extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+
+        private final int to;
+
+        private final Consumer<Patient> action;
+
+        Generate(int from, int to, Consumer<Patient> action) {
+            this.from = from;
+            this.to = to;
+            this.action = action;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SEQUENTIAL_THRESHOLD) {
+                for (int p = from; p < to; p++)
+                    action.accept(patient(p));
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new Generate(from, mid, action), new Generate(mid, to, action));
+        }
+    }
+
+
+//##################### main (test unit) ######################
+
+    /**
+     * Generates patients (1 million or the number given as first argument) for the descriptors of
+     * out/csv/mesh.dict (or some test terms) and prints the throughput and the most frequent diseases. The patients
+     * generated in parallel are compared with the patients of a second generator with the same seed, which
+     * generates them sequentially.
+     */
+    public static void main(String[] args) {
+        int persons = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        PatientGenerator generator;
+        try {
+            generator = testGenerator();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+
+        String[] diseases = generator.getDiseases();
+        AtomicLongArray frequencies = new AtomicLongArray(diseases.length);
+        long start = System.currentTimeMillis();
+        generator.forEach(0, persons, patient -> {
+            for (int i = 0; i < patient.diseaseCount(); i++)
+                frequencies.incrementAndGet(patient.diseaseIndex(i));
+        });
+        System.out.println("Generated " + persons + " patients in " + (System.currentTimeMillis() - start) + " ms.");
+
+        for (int r = 0; r < Math.min(5, diseases.length); r++)
+            System.out.println("\t" + diseases[r] + ": " + frequencies.get(r));
+
+        // Test reproducibility (expected: the same patients in parallel and sequentially by a second generator)
+        int sample = Math.min(persons, 100_000);
+        String[] parallel = new String[sample];
+        generator.forEach(0, sample, patient -> parallel[patient.getPersonID()] = describe(patient));
+        PatientGenerator second;
+        try {
+            second = testGenerator();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        boolean passed = true;
+        for (int p = 0; p < sample; p++)
+            passed &= describe(second.patient(p)).equals(parallel[p]);
+        System.out.println("Reproducibility test " + (passed ? "passed" : "FAILED"));
+    }
+
+    /**
+     * Creates the generator of the test unit.
+     */
+    private static PatientGenerator testGenerator() throws IOException {
+        String separ = File.separator;
+        Path dictionary = Paths.get("out" + separ + "csv" + separ + "mesh.dict");
+        if (Files.exists(dictionary))
+            return fromDictionary(42, TermDictionary.open(dictionary), 10_000);
+        return new PatientGenerator(42, new String[]{"Asthma", "Cough", "Influenza", "Ulna Fracture",
+                "Tibial Fracture"}, 10_000);
+    }
+
+    /**
+     * Describes all the generated attributes of a patient for the test unit.
+     */
+    private static String describe(Patient patient) {
+        return patient.getPersonID() + "|" + patient.getName() + "|" + patient.getAddress() + "|" +
+                Arrays.toString(patient.getDiseases());
+    }
+
+}
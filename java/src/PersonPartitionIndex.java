@@ -0,0 +1,150 @@
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class is an in-memory index of the partitions on which a person has a replica of its {@link Info} (see
+ * {@link InfoKey}), i.e. the partitions on which the person's {@link Ill} entries were written. The partitions of a
+ * person are stored as a bitset (long[], trailing zero words are trimmed), which is replaced on each change, s.t.
+ * lookups need no locking.
+ * <p>
+ * The index is local to the process and only covers the entries written by an {@link IgniteBulkLoader}: the loader
+ * creates a replica only if {@link #add(int, int)} returns true, and the {@link InfoReplicaCleaner} of the loader
+ * removes the partition by {@link #remove(int, int)} together with the replica. It is neither shared with other
+ * nodes nor derived from the caches, hence entries written otherwise (e.g. by a put of another client) are not in the
+ * index and their replicas are not cleaned. Removed {@link Ill} entries do not clear the partition by themselves, as
+ * other diseases of the person may remain on it.
+ */
+public class PersonPartitionIndex {
+
+    private static final long[] EMPTY = new long[0];
+
+    /**
+     * Number of partitions of the caches
+     */
+    private final int partitions;
+
+    /**
+     * Bitsets of the partitions per person
+     */
+    private final ConcurrentHashMap<Integer, long[]> index = new ConcurrentHashMap<>();
+
+
+//##################### Constructor ######################
+
+    /**
+     * Creates an empty index.
+     *
+     * @param partitions Number of partitions of the caches
+     */
+    public PersonPartitionIndex(int partitions) {
+        if (partitions < 1)
+            throw new IllegalArgumentException("There has to be at least one partition.");
+        this.partitions = partitions;
+    }
+
+
+//##################### Index ######################
+
+    /**
+     * Adds a partition of a person.
+     *
+     * @param personID  ID of the person
+     * @param partition The partition
+     * @return True if the partition was not in the index yet
+     */
+    public boolean add(int personID, int partition) {
+        checkPartition(partition);
+        int word = partition >>> 6;
+        long bit = 1L << partition;
+        boolean[] added = new boolean[1];
+        index.compute(personID, (id, bits) -> {
+            if (bits == null)
+                bits = EMPTY;
+            if (word < bits.length && (bits[word] & bit) != 0)
+                return bits;
+            long[] copy = Arrays.copyOf(bits, Math.max(bits.length, word + 1));
+            copy[word] |= bit;
+            added[0] = true;
+            return copy;
+        });
+        return added[0];
+    }
+
+    /**
+     * Removes a partition of a person (the person is removed from the index with its last partition).
+     *
+     * @param personID  ID of the person
+     * @param partition The partition
+     * @return True if the partition was in the index
+     */
+    public boolean remove(int personID, int partition) {
+        checkPartition(partition);
+        int word = partition >>> 6;
+        long bit = 1L << partition;
+        boolean[] removed = new boolean[1];
+        index.computeIfPresent(personID, (id, bits) -> {
+            if (word >= bits.length || (bits[word] & bit) == 0)
+                return bits;
+            removed[0] = true;
+            int length = bits.length;
+            long[] copy = bits.clone();
+            copy[word] &= ~bit;
+            while (length > 0 && copy[length - 1] == 0)
+                length--;
+            return length == 0 ? null : Arrays.copyOf(copy, length);
+        });
+        return removed[0];
+    }
+
+    /**
+     * Checks whether a person has a partition.
+     *
+     * @param personID  ID of the person
+     * @param partition The partition
+     * @return True if the partition is in the index
+     */
+    public boolean contains(int personID, int partition) {
+        long[] bits = index.get(personID);
+        int word = partition >>> 6;
+        return bits != null && partition >= 0 && word < bits.length && (bits[word] & (1L << partition)) != 0;
+    }
+
+    /**
+     * Gets the partitions of a person (e.g. for {@link org.apache.ignite.cache.query.SqlFieldsQuery#setPartitions}).
+     *
+     * @param personID ID of the person
+     * @return The partitions in ascending order (empty if the person is not in the index)
+     */
+    public int[] partitions(int personID) {
+        long[] bits = index.get(personID);
+        if (bits == null)
+            return new int[0];
+        int count = 0;
+        for (long word : bits)
+            count += Long.bitCount(word);
+        int[] result = new int[count];
+        for (int w = 0, i = 0; w < bits.length; w++) {
+            for (long word = bits[w]; word != 0; word &= word - 1)
+                result[i++] = (w << 6) + Long.numberOfTrailingZeros(word);
+        }
+        return result;
+    }
+
+    /**
+     * Gets the number of persons in the index
+     * @return Number of persons
+     */
+    public int size() {
+        return index.size();
+    }
+
+    public int getPartitions() {
+        return partitions;
+    }
+
+    private void checkPartition(int partition) {
+        if (partition < 0 || partition >= partitions)
+            throw new IllegalArgumentException("The partition " + partition + " is not in 0.." + (partitions - 1));
+    }
+
+}
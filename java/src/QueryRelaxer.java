@@ -0,0 +1,325 @@
+import org.apache.ignite.IgniteCache;
+import org.apache.ignite.cache.query.FieldsQueryCursor;
+import org.apache.ignite.cache.query.SqlFieldsQuery;
+import org.apache.ignite.configuration.CacheConfiguration;
+import org.jooq.Condition;
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Keyword;
+import org.jooq.Param;
+import org.jooq.Query;
+import org.jooq.QueryPart;
+import org.jooq.SQLDialect;
+import org.jooq.VisitContext;
+import org.jooq.conf.ParamType;
+import org.jooq.conf.RenderNameStyle;
+import org.jooq.conf.Settings;
+import org.jooq.conf.StatementType;
+import org.jooq.impl.DSL;
+import org.jooq.impl.DefaultVisitListener;
+import org.jooq.impl.DefaultVisitListenerProvider;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class relaxes SQL queries on the relaxation attribute by the clustering of {@link MyAffinityFunction}: a
+ * condition {@code attribute = 'term'} is replaced by {@code attribute IN (terms of the term's cluster)}, e.g.
+ * {@code disease = 'Asthma'} by {@code disease IN ('Asthma', 'Cough', 'Influenza')}.
+ * <p>
+ * The query is parsed by jOOQ and the conditions are replaced by a {@link org.jooq.VisitListener} while the query is
+ * rendered (names as they are written in the query, values inlined). A condition is relaxed if its parts are the
+ * attribute (a {@link Field}), the comparator {@code =} and a string value (a {@link Param}) in this order, any other
+ * condition on the attribute (e.g. {@code 'term' = attribute} or a bind parameter) is rejected, s.t. a query is never
+ * partially relaxed.
+ * <p>
+ * As the rows of a cluster are stored on the cluster's partitions only, and so are the collocated {@link Info}
+ * replicas, the relaxed query is executed on these partitions ({@link SqlFieldsQuery#setPartitions(int...)}), i.e. by
+ * the nodes of the cluster instead of all nodes. This requires that the cache of the query is partitioned by the
+ * same clustering (see {@link #isPartitionedBy(IgniteCache)}), otherwise the relaxed query is executed on all
+ * partitions.
+ */
+public class QueryRelaxer {
+
+    /**
+     * Default relaxation attribute (the disease of {@link IllKey})
+     */
+    public static final String DFLT_ATTRIBUTE = "disease";
+
+    /**
+     * Settings of the rendering: names as in the query (quoted names stay quoted), values inlined
+     */
+    private static final Settings SETTINGS = new Settings()
+            .withRenderNameStyle(RenderNameStyle.AS_IS)
+            .withParamType(ParamType.INLINED)
+            .withStatementType(StatementType.STATIC_STATEMENT);
+
+    /**
+     * Comparator of a relaxed condition
+     */
+    private static final Keyword EQUALS = DSL.keyword("=");
+
+    private final MyAffinityFunction<String> affinity;
+
+    private final String attribute;
+
+    /**
+     * Context without listener for parsing and rendering single conditions
+     */
+    private final DSLContext context = DSL.using(SQLDialect.H2, SETTINGS);
+
+    /**
+     * Whether a cache is partitioned by the clustering of the affinity function, by the name of the cache
+     */
+    private final ConcurrentHashMap<String, Boolean> partitionedCaches = new ConcurrentHashMap<>();
+
+
+//##################### Constructors ######################
+
+    /**
+     * Creates a relaxer for the default relaxation attribute.
+     *
+     * @param affinity Affinity function with the clustering of the terms
+     */
+    public QueryRelaxer(MyAffinityFunction<String> affinity) {
+        this(affinity, DFLT_ATTRIBUTE);
+    }
+
+    /**
+     * Creates a relaxer.
+     *
+     * @param affinity  Affinity function with the clustering of the terms
+     * @param attribute Name of the relaxation attribute (column), case-insensitive
+     */
+    public QueryRelaxer(MyAffinityFunction<String> affinity, String attribute) {
+        this.affinity = affinity;
+        this.attribute = attribute;
+    }
+
+
+//##################### Relaxation ######################
+
+    /**
+     * Relaxes a query: each condition {@code attribute = 'term'} is replaced by the terms of the term's cluster.
+     *
+     * @param sql The query
+     * @return The relaxed query and the partitions of the clusters
+     * @throws IllegalArgumentException If the query has no condition on the relaxation attribute or a condition on
+     *                                  the attribute which can not be relaxed
+     */
+    public Relaxation relax(String sql) {
+        Query query = context.parser().parseQuery(sql);
+        Relaxation relaxation = new Relaxation(this);
+        Set<QueryPart> relaxedConditions = Collections.newSetFromMap(new IdentityHashMap<>());
+        DSLContext relaxing = DSL.using(context.configuration().derive(new DefaultVisitListenerProvider(
+                new DefaultVisitListener() {
+                    @Override
+                    public void visitStart(VisitContext ctx) {
+                        QueryPart part = ctx.queryPart();
+                        if (part instanceof Condition) {
+                            QueryPart relaxed = relax((Condition) part, relaxation);
+                            if (relaxed != null) {
+                                relaxedConditions.add(relaxed);
+                                ctx.queryPart(relaxed);
+                            }
+                        } else if (isAttribute(part)) {
+                            checkRelaxed(ctx, relaxedConditions, sql);
+                        }
+                    }
+                })));
+        relaxation.sql = relaxing.renderInlined(query);
+
+        if (relaxation.terms.isEmpty())
+            throw new IllegalArgumentException("The query has no condition " + attribute + " = 'term': " + sql);
+        return relaxation;
+    }
+
+    /**
+     * Executes a relaxed query on the partitions of the clusters of its terms.
+     *
+     * @param cache A cache of the SQL schema of the query
+     * @param sql   The query
+     * @return Cursor of the result
+     */
+    public FieldsQueryCursor<List<?>> query(IgniteCache<?, ?> cache, String sql) {
+        return cache.query(relax(sql).toQuery(cache));
+    }
+
+    /**
+     * Checks that the relaxation attribute, if it is used in a condition, is used in a relaxed condition.
+     *
+     * @throws IllegalArgumentException If the attribute is used in a condition which is not relaxed
+     */
+    private void checkRelaxed(VisitContext ctx, Set<QueryPart> relaxedConditions, String sql) {
+        boolean condition = false;
+        for (QueryPart part : ctx.queryParts()) {
+            if (relaxedConditions.contains(part))
+                return;
+            condition |= part instanceof Condition;
+        }
+        if (condition)
+            throw new IllegalArgumentException("The query has a condition on " + attribute + ", which is not " +
+                    attribute + " = 'term' and can not be relaxed: " + sql);
+    }
+
+    /**
+     * Relaxes a condition, if it is an equality on the relaxation attribute.
+     *
+     * @return The relaxed condition or null if the condition is not relaxed
+     */
+    @SuppressWarnings("unchecked")
+    private Condition relax(Condition condition, Relaxation relaxation) {
+        List<QueryPart> parts = parts(condition);
+        if (parts.size() != 3 || !isAttribute(parts.get(0)) || !EQUALS.equals(parts.get(1))
+                || !(parts.get(2) instanceof Param) || !(((Param<?>) parts.get(2)).getValue() instanceof String))
+            return null;
+
+        String term = (String) ((Param<?>) parts.get(2)).getValue();
+        LinkedHashSet<String> terms = new LinkedHashSet<>();
+        terms.add(term);
+        terms.addAll(affinity.clusterTerms(term));
+        if (!relaxation.terms.contains(term))
+            relaxation.terms.add(term);
+        for (int partition : affinity.clusterPartitions(term))
+            relaxation.partitions.add(partition);
+
+        // The field of the query is kept, s.t. it is rendered with its qualification and quotes
+        return ((Field<Object>) parts.get(0)).in(terms.toArray());
+    }
+
+    /**
+     * Gets the parts of a condition, e.g. the field, the comparator and the value of a comparison, which are visited
+     * while the condition is rendered.
+     */
+    private List<QueryPart> parts(Condition condition) {
+        List<QueryPart> parts = new ArrayList<>();
+        DSL.using(context.configuration().derive(new DefaultVisitListenerProvider(new DefaultVisitListener() {
+            @Override
+            public void visitStart(VisitContext ctx) {
+                // The condition is the root of the rendered parts
+                if (ctx.queryParts().length == 2)
+                    parts.add(ctx.queryPart());
+            }
+        }))).renderInlined(condition);
+        return parts;
+    }
+
+    /**
+     * Checks whether a part of a query is the relaxation attribute.
+     */
+    private boolean isAttribute(QueryPart part) {
+        return part instanceof Field && !(part instanceof Param)
+                && attribute.equalsIgnoreCase(((Field<?>) part).getName());
+    }
+
+    /**
+     * Checks whether a cache is partitioned by the clustering of the affinity function, i.e. its affinity function
+     * is a {@link MyAffinityFunction} with the same clustering of the same terms and the same partitions per cluster.
+     * The configured affinity function of a cache is a copy, hence it is compared by its clustering. The result is
+     * cached by the name of the cache, i.e. a cache must not be recreated with another affinity function under the
+     * same name while the relaxer is used.
+     *
+     * @param cache The cache
+     * @return True if the rows of each cluster are stored on the partitions of the cluster
+     */
+    public boolean isPartitionedBy(IgniteCache<?, ?> cache) {
+        return partitionedCaches.computeIfAbsent(cache.getName(), name -> {
+            Object configured = cache.getConfiguration(CacheConfiguration.class).getAffinity();
+            if (!(configured instanceof MyAffinityFunction))
+                return false;
+            ClusteringSnapshot expected = affinity.snapshot();
+            ClusteringSnapshot actual = ((MyAffinityFunction<?>) configured).snapshot();
+            return actual.getPartitionsPerCluster() == expected.getPartitionsPerCluster()
+                    && Arrays.equals(actual.getTerms(), expected.getTerms())
+                    && Arrays.equals(actual.getTermClusters(), expected.getTermClusters());
+        });
+    }
+
+
+//##################### Result ######################
+
+    /**
+     * A relaxed query with the partitions of the clusters of its terms.
+     */
+    public static class Relaxation {
+
+        private final QueryRelaxer relaxer;
+
+        private String sql;
+
+        private final List<String> terms = new ArrayList<>();
+
+        private final TreeSet<Integer> partitions = new TreeSet<>();
+
+        private Relaxation(QueryRelaxer relaxer) {
+            this.relaxer = relaxer;
+        }
+
+        /**
+         * Gets the relaxed query
+         * @return The relaxed query
+         */
+        public String getSql() {
+            return sql;
+        }
+
+        /**
+         * Gets the relaxed terms of the original query
+         * @return The relaxed terms
+         */
+        public List<String> getTerms() {
+            return Collections.unmodifiableList(terms);
+        }
+
+        /**
+         * Gets the partitions of the clusters of the relaxed terms
+         * @return The partitions in ascending order
+         */
+        public int[] getPartitions() {
+            int[] result = new int[partitions.size()];
+            int i = 0;
+            for (int partition : partitions)
+                result[i++] = partition;
+            return result;
+        }
+
+        /**
+         * Creates the query for a cache. The query is restricted to the partitions of the clusters only if the cache
+         * is partitioned by the same clustering (see {@link #isPartitionedBy(IgniteCache)}), e.g. not for tables
+         * created by SQL with the default affinity function, whose partitions do not contain the clusters.
+         *
+         * @param cache The cache the query is executed on
+         * @return The SQL query
+         */
+        public SqlFieldsQuery toQuery(IgniteCache<?, ?> cache) {
+            SqlFieldsQuery query = new SqlFieldsQuery(sql);
+            if (isPartitionedBy(cache))
+                query.setPartitions(getPartitions());
+            return query;
+        }
+
+        /**
+         * Checks whether a cache is partitioned by the clustering of this relaxation (see
+         * {@link QueryRelaxer#isPartitionedBy(IgniteCache)}).
+         *
+         * @param cache The cache
+         * @return True if the rows of the relaxed conditions are stored on the partitions of the clusters
+         */
+        public boolean isPartitionedBy(IgniteCache<?, ?> cache) {
+            return !partitions.isEmpty() && relaxer.isPartitionedBy(cache);
+        }
+
+        @Override
+        public String toString() {
+            return sql + " on partitions " + Arrays.toString(getPartitions());
+        }
+    }
+
+}
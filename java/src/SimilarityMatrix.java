@@ -0,0 +1,400 @@
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * This class stores the pairwise similarities of the terms of the relaxation attribute (e.g. MeSH terms).
+ * Each term is interned to a dense id {@code 0..size()-1} and the similarity values are kept in a primitive
+ * triangular matrix, s.t. a lookup by ids is a plain array read without boxing or building any String keys.
+ * The similarity is symmetric, the similarity of a term to itself is 1 and unknown pairs have similarity 0.
+ * <p>
+ * Besides the csv-format (see {@link #load(Path)}) a matrix can be stored in a binary format (big endian, version 1):
+ * <pre>
+ * int     magic ("BSIM")
+ * int     version
+ * int     number of terms n
+ * n times: int length, byte[length] UTF-8 encoded term
+ * float[n*(n-1)/2] strict lower triangle of the matrix, row by row
+ * </pre>
+ * A binary matrix that does not fit into the heap can be memory-mapped by {@link MappedSimilarityMatrix} instead.
+ * A matrix remembers the file it was loaded from until it is modified (see {@link #getFile()}).
+ */
+public class SimilarityMatrix implements SimilarityStore {
+
+    /**
+     * Delimiter of the columns in the similarity csv-file ("Term1|Term2|Similarity")
+     */
+    private static final char DELIMITER = '|';
+
+    /**
+     * Magic number at the start of a binary similarity matrix ("BSIM")
+     */
+    private static final int MAGIC = 0x4253494D;
+
+    /**
+     * Current version of the binary format
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * Size of the chunks in which the values of a binary matrix are read
+     */
+    private static final int CHUNK = 1 << 20;
+
+    /**
+     * Terms of the matrix indexed by their id
+     */
+    private final String[] terms;
+
+    /**
+     * Dictionary mapping each term to its id (not serialized, rebuilt from {@link #terms})
+     */
+    private transient HashMap<String, Integer> ids;
+
+    /**
+     * Strict lower triangle of the similarity matrix, stored row by row (see {@link #index(int, int)})
+     */
+    private final float[] values;
+
+    /**
+     * Path of the file the matrix was loaded from (a string, since paths are not serializable), {@code null} if the
+     * matrix was not loaded from a file or was modified afterwards
+     */
+    private String file;
+
+
+//##################### Constructors ######################
+
+    /**
+     * Creates an empty similarity matrix for the given terms (all pairwise similarities are 0).
+     *
+     * @param terms Distinct terms, the i-th term gets the id i
+     */
+    public SimilarityMatrix(String[] terms) {
+        this.terms = terms.clone();
+        this.ids = dictionary(this.terms);
+
+        long n = terms.length;
+        long size = n * (n - 1) / 2;
+        if (size > Integer.MAX_VALUE - 8)
+            throw new IllegalArgumentException("Too many terms for an in-memory similarity matrix: " + n);
+        this.values = new float[(int) size];
+    }
+
+
+//##################### Loading ######################
+
+    /**
+     * Loads the similarities from a file, which is either in the binary format (see {@link #read(Path)}) or a
+     * csv-file with lines of the form "Term1|Term2|Similarity", e.g. "Asthma|Cough|0.2". In a csv-file, empty lines
+     * and lines starting with '#' are ignored and the terms are interned in the order of their first occurrence.
+     *
+     * @param file Path to the binary or csv-file
+     * @return The similarity matrix
+     * @throws IOException If the file can not be read or contains a malformed line
+     */
+    public static SimilarityMatrix load(Path file) throws IOException {
+        SimilarityMatrix matrix;
+        if (isBinary(file)) {
+            matrix = read(file);
+        } else {
+            try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                matrix = load(reader, file.toString());
+            }
+        }
+        matrix.file = file.toString();
+        return matrix;
+    }
+
+    /**
+     * Loads the similarities from a csv-file (see {@link #load(Path)}), e.g. a resource on the classpath.
+     *
+     * @param reader Reader of the csv-file, which is not closed
+     * @param name   Name of the csv-file for the error messages
+     * @return The similarity matrix
+     * @throws IOException If the csv-file can not be read or contains a malformed line
+     */
+    public static SimilarityMatrix load(BufferedReader reader, String name) throws IOException {
+        HashMap<String, Integer> dictionary = new HashMap<>();
+        int[] first = new int[64];
+        int[] second = new int[64];
+        float[] sims = new float[64];
+        int count = 0;
+
+        // Read all the triples, intern the terms on the fly
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.isEmpty() || line.charAt(0) == '#')
+                continue;
+
+            int d1 = line.indexOf(DELIMITER);
+            int d2 = line.lastIndexOf(DELIMITER);
+            if (d1 < 0 || d1 == d2)
+                throw new IOException("Malformed line " + lineNumber + " in " + name + ": " + line);
+
+            if (count == sims.length) {
+                first = Arrays.copyOf(first, count * 2);
+                second = Arrays.copyOf(second, count * 2);
+                sims = Arrays.copyOf(sims, count * 2);
+            }
+            first[count] = intern(dictionary, line.substring(0, d1));
+            second[count] = intern(dictionary, line.substring(d1 + 1, d2));
+            try {
+                sims[count] = Float.parseFloat(line.substring(d2 + 1).trim());
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed similarity in line " + lineNumber + " in " + name + ": " + line);
+            }
+            count++;
+        }
+
+        // Build the matrix
+        String[] terms = new String[dictionary.size()];
+        for (String term : dictionary.keySet())
+            terms[dictionary.get(term)] = term;
+        SimilarityMatrix matrix = new SimilarityMatrix(terms);
+        for (int i = 0; i < count; i++) {
+            if (first[i] != second[i])
+                matrix.values[index(first[i], second[i])] = sims[i];
+        }
+        return matrix;
+    }
+
+    /**
+     * Checks whether a file starts with the magic number of the binary format.
+     */
+    private static boolean isBinary(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(4);
+            return channel.read(magic) == 4 && magic.getInt(0) == MAGIC;
+        }
+    }
+
+    /**
+     * Reads a similarity matrix in the binary format into the heap.
+     *
+     * @param file Path of the binary file
+     * @return The similarity matrix
+     * @throws IOException If the file can not be read or is not a binary similarity matrix
+     */
+    public static SimilarityMatrix read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            SimilarityMatrix matrix = new SimilarityMatrix(readHeader(channel));
+            ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK * 4);
+            for (int offset = 0; offset < matrix.values.length; ) {
+                int length = Math.min(CHUNK, matrix.values.length - offset);
+                buffer.clear().limit(length * 4);
+                readFully(channel, buffer);
+                buffer.flip();
+                buffer.asFloatBuffer().get(matrix.values, offset, length);
+                offset += length;
+            }
+            matrix.file = file.toString();
+            return matrix;
+        }
+    }
+
+    /**
+     * Writes this similarity matrix in the binary format.
+     *
+     * @param file Path of the binary file
+     * @throws IOException If the file can not be written
+     */
+    public void write(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(channel, header(terms));
+            ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK * 4);
+            for (int offset = 0; offset < values.length; ) {
+                int length = Math.min(CHUNK, values.length - offset);
+                buffer.clear();
+                buffer.asFloatBuffer().put(values, offset, length);
+                buffer.limit(length * 4);
+                writeFully(channel, buffer);
+                offset += length;
+            }
+        }
+    }
+
+    /**
+     * Encodes the header of the binary format (magic number, version and terms). The header is followed by the
+     * n*(n-1)/2 similarity values, see {@link #offset(int, int)}.
+     *
+     * @param terms The terms of the matrix
+     * @return Buffer containing the header (position 0, limit at the end of the header)
+     */
+    public static ByteBuffer header(String[] terms) {
+        byte[][] encoded = new byte[terms.length][];
+        int size = 12;
+        for (int i = 0; i < terms.length; i++) {
+            encoded[i] = terms[i].getBytes(StandardCharsets.UTF_8);
+            size += 4 + encoded[i].length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(terms.length);
+        for (byte[] term : encoded)
+            buffer.putInt(term.length).put(term);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Reads the header of the binary format, afterwards the channel is positioned at the first similarity value.
+     *
+     * @param channel Channel positioned at the start of the header
+     * @return The terms of the matrix
+     * @throws IOException If the channel can not be read or does not contain a binary similarity matrix
+     */
+    static String[] readHeader(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(12);
+        readFully(channel, buffer);
+        buffer.flip();
+        if (buffer.getInt() != MAGIC)
+            throw new IOException("Not a binary similarity matrix.");
+        int version = buffer.getInt();
+        if (version != VERSION)
+            throw new IOException("Unsupported version of the binary similarity matrix: " + version);
+
+        String[] terms = new String[buffer.getInt()];
+        ByteBuffer length = ByteBuffer.allocate(4);
+        for (int i = 0; i < terms.length; i++) {
+            length.clear();
+            readFully(channel, length);
+            ByteBuffer term = ByteBuffer.allocate(length.getInt(0));
+            readFully(channel, term);
+            terms[i] = new String(term.array(), StandardCharsets.UTF_8);
+        }
+        return terms;
+    }
+
+    static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0)
+                throw new EOFException("Unexpected end of the binary similarity matrix.");
+        }
+    }
+
+    static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+    }
+
+    /**
+     * Builds the dictionary mapping each term to its id.
+     */
+    private static HashMap<String, Integer> dictionary(String[] terms) {
+        HashMap<String, Integer> ids = new HashMap<>(terms.length * 2);
+        for (int i = 0; i < terms.length; i++) {
+            if (ids.put(terms[i], i) != null)
+                throw new IllegalArgumentException("The term " + terms[i] + " occurs more than once.");
+        }
+        return ids;
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        ids = dictionary(terms);
+    }
+
+    private static int intern(HashMap<String, Integer> dictionary, String term) {
+        Integer id = dictionary.get(term);
+        if (id == null) {
+            id = dictionary.size();
+            dictionary.put(term, id);
+        }
+        return id;
+    }
+
+
+//##################### Getter & Setter ######################
+
+    /**
+     * Gets the number of terms in this matrix
+     * @return Number of terms
+     */
+    public int size() {
+        return terms.length;
+    }
+
+    /**
+     * Gets the id of a term
+     * @param term The term (its string representation is looked up)
+     * @return The id of the term or -1 if the term is unknown
+     */
+    public int id(Object term) {
+        Integer id = ids.get(term.toString());
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Gets the term with the given id
+     * @param id Id of the term
+     * @return The term
+     */
+    public String term(int id) {
+        return terms[id];
+    }
+
+    /**
+     * Gets the similarity of two terms identified by their ids.
+     * @param id1 Id of the first term
+     * @param id2 Id of the second term
+     * @return Similarity value
+     */
+    public double similarity(int id1, int id2) {
+        if (id1 == id2)
+            return 1.0;
+        return values[index(id1, id2)];
+    }
+
+    /**
+     * Sets the similarity of two distinct terms identified by their ids.
+     * @param id1 Id of the first term
+     * @param id2 Id of the second term
+     * @param similarity Similarity value
+     */
+    public void set(int id1, int id2, double similarity) {
+        if (id1 == id2)
+            throw new IllegalArgumentException("The similarity of a term to itself is always 1.");
+        values[index(id1, id2)] = (float) similarity;
+        file = null;
+    }
+
+    @Override
+    public Path getFile() {
+        return file == null ? null : Paths.get(file);
+    }
+
+    /**
+     * Index of the pair (id1, id2) with id1 != id2 in the triangular array {@link #values}.
+     */
+    private static int index(int id1, int id2) {
+        return (int) offset(id1, id2);
+    }
+
+    /**
+     * Offset of the pair (id1, id2) with id1 != id2 in the strict lower triangle of a matrix stored row by row, i.e.
+     * row r starts at offset r*(r-1)/2 and contains the similarities to the ids 0..r-1.
+     *
+     * @param id1 Id of the first term
+     * @param id2 Id of the second term
+     * @return Offset of the pair
+     */
+    public static long offset(int id1, int id2) {
+        int row = Math.max(id1, id2);
+        int col = Math.min(id1, id2);
+        return (long) row * (row - 1) / 2 + col;
+    }
+
+}
@@ -0,0 +1,52 @@
+import java.io.Serializable;
+import java.nio.file.Path;
+
+/**
+ * This interface provides the pairwise similarities of the terms of the relaxation attribute (e.g. MeSH terms) to
+ * the clustering and to {@link MyAffinityFunction}. Each term is interned to a dense id {@code 0..size()-1}, s.t.
+ * the similarities are looked up by ids. The similarity is symmetric, the similarity of a term to itself is 1 and
+ * the values lie in [0, 1].
+ * <p>
+ * Implementations are either materialized ({@link SimilarityMatrix}) or compute the similarities on demand
+ * ({@link MeSHTree}). They must be thread-safe for concurrent lookups.
+ */
+public interface SimilarityStore extends Serializable {
+
+    /**
+     * Gets the number of terms in this store
+     * @return Number of terms
+     */
+    int size();
+
+    /**
+     * Gets the id of a term
+     * @param term The term (its string representation is looked up)
+     * @return The id of the term or -1 if the term is unknown
+     */
+    int id(Object term);
+
+    /**
+     * Gets the term with the given id
+     * @param id Id of the term
+     * @return The term
+     */
+    String term(int id);
+
+    /**
+     * Gets the similarity of two terms identified by their ids.
+     * @param id1 Id of the first term
+     * @param id2 Id of the second term
+     * @return Similarity value
+     */
+    double similarity(int id1, int id2);
+
+    /**
+     * Gets the file this store was loaded from, s.t. it can be loaded again from the same path (e.g. by a
+     * deserialized {@link MyAffinityFunction}) and changes of the file can be detected.
+     * @return Path of the file or {@code null} if the store was not loaded from a file or was modified afterwards
+     */
+    default Path getFile() {
+        return null;
+    }
+
+}
@@ -0,0 +1,407 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+
+/**
+ * This class is a binary dictionary of the MeSH descriptors (id, name and tree numbers), which replaces the parsing
+ * of mesh.csv. The file is memory-mapped and read in place: the records are sorted by their id and an offset index
+ * gives the start of each record, a name index lists the records in the order of their names. A descriptor is thus
+ * found by id or by name with a binary search on the mapped bytes, without parsing text or building a heap map.
+ * <p>
+ * Binary format (big endian, version 1), the strings are UTF-8 encoded and compared as unsigned bytes:
+ * <pre>
+ * int     magic ("BDIC")
+ * int     version
+ * int     number of records n
+ * int[n+1] offset of each record relative to the first record (the last entry is the end of the records)
+ * int[n]  record numbers ordered by name
+ * n times: int id length, int name length, int tree numbers length, id, name, tree numbers (separated by ';')
+ * </pre>
+ * Dictionaries are created by a {@link Writer}, to which the MeSH fetch and ingest tools add each record while they
+ * write it (see {@link MeSHFilterOutputStream}), or from an existing csv-file (see {@link #fromCsv(Path, Path)}).
+ */
+public class TermDictionary {
+
+    /**
+     * Magic number at the start of a dictionary ("BDIC")
+     */
+    private static final int MAGIC = 0x42444943;
+
+    /**
+     * Current version of the binary format
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * Size of the header (magic number, version, number of records)
+     */
+    private static final int HEADER_SIZE = 12;
+
+    /**
+     * Size of the length fields of a record
+     */
+    private static final int RECORD_HEADER_SIZE = 12;
+
+    /**
+     * Delimiter of the tree numbers
+     */
+    private static final char TREE_NUMBER_DELIMITER = ';';
+
+    /**
+     * The mapped dictionary (only read with absolute gets, s.t. lookups are thread-safe)
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * Number of records
+     */
+    private final int size;
+
+    /**
+     * Start of the name index
+     */
+    private final int namesStart;
+
+    /**
+     * Start of the first record
+     */
+    private final int dataStart;
+
+
+//##################### Constructors ######################
+
+    /**
+     * Reads a dictionary from a buffer, which starts at position 0.
+     *
+     * @param buffer The buffer
+     * @throws IOException If the buffer does not contain a valid dictionary
+     */
+    public TermDictionary(ByteBuffer buffer) throws IOException {
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC)
+            throw new IOException("Not a term dictionary.");
+        int version = buffer.getInt(4);
+        if (version != VERSION)
+            throw new IOException("Unsupported version of the term dictionary: " + version);
+
+        this.buffer = buffer;
+        this.size = buffer.getInt(8);
+        this.namesStart = HEADER_SIZE + 4 * (size + 1);
+        this.dataStart = namesStart + 4 * size;
+        if (size < 0 || dataStart > buffer.limit() || dataStart + buffer.getInt(namesStart - 4) > buffer.limit())
+            throw new IOException("The term dictionary is truncated.");
+    }
+
+    /**
+     * Opens a dictionary by memory-mapping it.
+     *
+     * @param file Path of the dictionary
+     * @return The dictionary
+     * @throws IOException If the file can not be read or is not a valid dictionary
+     */
+    public static TermDictionary open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new TermDictionary(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+
+//##################### Lookups ######################
+
+    /**
+     * Gets the number of records
+     * @return Number of records
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the id of a record, e.g. "D001249"
+     * @param record Number of the record (in the order of the ids)
+     * @return The id
+     */
+    public String id(int record) {
+        int pos = position(record);
+        return string(pos + RECORD_HEADER_SIZE, buffer.getInt(pos));
+    }
+
+    /**
+     * Gets the name of a record, e.g. "Asthma"
+     * @param record Number of the record (in the order of the ids)
+     * @return The name
+     */
+    public String name(int record) {
+        int pos = position(record);
+        return string(pos + RECORD_HEADER_SIZE + buffer.getInt(pos), buffer.getInt(pos + 4));
+    }
+
+    /**
+     * Gets the tree numbers of a record, e.g. ["C08.127.108", "C08.381.495.108"]
+     * @param record Number of the record (in the order of the ids)
+     * @return The tree numbers (empty if the record has none)
+     */
+    public String[] treeNumbers(int record) {
+        int pos = position(record);
+        int length = buffer.getInt(pos + 8);
+        if (length == 0)
+            return new String[0];
+        String joined = string(pos + RECORD_HEADER_SIZE + buffer.getInt(pos) + buffer.getInt(pos + 4), length);
+
+        int count = 1;
+        for (int i = 0; i < joined.length(); i++) {
+            if (joined.charAt(i) == TREE_NUMBER_DELIMITER)
+                count++;
+        }
+        String[] treeNumbers = new String[count];
+        for (int i = 0, from = 0; i < count; i++) {
+            int end = joined.indexOf(TREE_NUMBER_DELIMITER, from);
+            if (end < 0)
+                end = joined.length();
+            treeNumbers[i] = joined.substring(from, end);
+            from = end + 1;
+        }
+        return treeNumbers;
+    }
+
+    /**
+     * Finds a record by its id with a binary search on the mapped records.
+     * @param id The id
+     * @return Number of the record or -1 if there is no record with this id
+     */
+    public int indexOfId(String id) {
+        byte[] key = id.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int pos = position(mid);
+            int cmp = compare(pos + RECORD_HEADER_SIZE, buffer.getInt(pos), key);
+            if (cmp < 0)
+                low = mid + 1;
+            else if (cmp > 0)
+                high = mid - 1;
+            else
+                return mid;
+        }
+        return -1;
+    }
+
+    /**
+     * Finds a record by its name with a binary search on the name index (the first one if several records have
+     * this name).
+     * @param name The name
+     * @return Number of the record or -1 if there is no record with this name
+     */
+    public int indexOfName(String name) {
+        byte[] key = name.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = size - 1;
+        int result = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int record = buffer.getInt(namesStart + 4 * mid);
+            int pos = position(record);
+            int cmp = compare(pos + RECORD_HEADER_SIZE + buffer.getInt(pos), buffer.getInt(pos + 4), key);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else {
+                if (cmp == 0)
+                    result = record;
+                high = mid - 1;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Absolute position of a record in the buffer.
+     */
+    private int position(int record) {
+        if (record < 0 || record >= size)
+            throw new IndexOutOfBoundsException("No record " + record + " in a dictionary of " + size + " records.");
+        return dataStart + buffer.getInt(HEADER_SIZE + 4 * record);
+    }
+
+    /**
+     * Compares the bytes at a position of the buffer with a key (as unsigned bytes).
+     */
+    private int compare(int pos, int length, byte[] key) {
+        int n = Math.min(length, key.length);
+        for (int i = 0; i < n; i++) {
+            int cmp = Integer.compare(buffer.get(pos + i) & 0xFF, key[i] & 0xFF);
+            if (cmp != 0)
+                return cmp;
+        }
+        return Integer.compare(length, key.length);
+    }
+
+    /**
+     * Decodes a UTF-8 string at a position of the buffer.
+     */
+    private String string(int pos, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++)
+            bytes[i] = buffer.get(pos + i);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+
+//##################### Writing ######################
+
+    /**
+     * Converts a csv-file with lines "ID|Name|TreeNumber;TreeNumber;..." (the tree numbers are optional, see
+     * {@link MeSHSPARQL}) into a dictionary.
+     *
+     * @param csv  Path of the csv-file
+     * @param file Path of the dictionary
+     * @return Number of records
+     * @throws IOException If the csv-file can not be read or the dictionary can not be written
+     */
+    public static int fromCsv(Path csv, Path file) throws IOException {
+        return new Writer().addCsv(csv).write(file);
+    }
+
+    /**
+     * Collects records and writes them as dictionary. Records with an id that was already added are skipped.
+     */
+    public static class Writer {
+
+        private final ArrayList<byte[][]> records = new ArrayList<>();
+
+        private final HashSet<String> ids = new HashSet<>();
+
+        /**
+         * Adds a record.
+         * @param id          The id
+         * @param name        The name
+         * @param treeNumbers The tree numbers separated by ';' (may be empty)
+         * @return This writer for chaining
+         */
+        public Writer add(String id, String name, String treeNumbers) {
+            if (ids.add(id)) {
+                records.add(new byte[][]{id.getBytes(StandardCharsets.UTF_8), name.getBytes(StandardCharsets.UTF_8),
+                        treeNumbers.getBytes(StandardCharsets.UTF_8)});
+            }
+            return this;
+        }
+
+        /**
+         * Adds a record in the csv format "ID|Name|TreeNumber;TreeNumber;..." (the tree numbers are optional).
+         * Records without a delimiter are skipped.
+         *
+         * @param record Buffer with the UTF-8 encoded record
+         * @param offset Start of the record in the buffer
+         * @param length Length of the record (without line separator)
+         * @return This writer for chaining
+         */
+        public Writer addRecord(byte[] record, int offset, int length) {
+            int end = offset + length;
+            int d1 = indexOf(record, offset, end);
+            if (d1 < 0)
+                return this;
+            int d2 = indexOf(record, d1 + 1, end);
+            if (ids.add(new String(record, offset, d1 - offset, StandardCharsets.UTF_8))) {
+                records.add(new byte[][]{Arrays.copyOfRange(record, offset, d1),
+                        Arrays.copyOfRange(record, d1 + 1, d2 < 0 ? end : d2),
+                        d2 < 0 ? new byte[0] : Arrays.copyOfRange(record, d2 + 1, end)});
+            }
+            return this;
+        }
+
+        /**
+         * Adds the records of a csv-file with lines "ID|Name|TreeNumber;TreeNumber;..." (see
+         * {@link #addRecord(byte[], int, int)}).
+         *
+         * @param csv Path of the csv-file
+         * @return This writer for chaining
+         * @throws IOException If the csv-file can not be read
+         */
+        public Writer addCsv(Path csv) throws IOException {
+            try (BufferedReader reader = Files.newBufferedReader(csv, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    byte[] record = line.getBytes(StandardCharsets.UTF_8);
+                    addRecord(record, 0, record.length);
+                }
+            }
+            return this;
+        }
+
+        /**
+         * Gets the position of the first delimiter '|' in a range of a buffer or -1.
+         */
+        private static int indexOf(byte[] bytes, int from, int to) {
+            for (int i = from; i < to; i++) {
+                if (bytes[i] == '|')
+                    return i;
+            }
+            return -1;
+        }
+
+        /**
+         * Writes the collected records sorted by id.
+         * @param file Path of the dictionary
+         * @return Number of records
+         * @throws IOException If the dictionary can not be written
+         */
+        public int write(Path file) throws IOException {
+            Comparator<byte[]> bytes = Writer::compare;
+            byte[][][] sorted = records.toArray(new byte[0][][]);
+            Arrays.sort(sorted, (r1, r2) -> bytes.compare(r1[0], r2[0]));
+            Integer[] byName = new Integer[sorted.length];
+            for (int i = 0; i < byName.length; i++)
+                byName[i] = i;
+            Arrays.sort(byName, (i, j) -> bytes.compare(sorted[i][1], sorted[j][1]));
+
+            int n = sorted.length;
+            long size = HEADER_SIZE + 4L * (2 * n + 1);
+            for (byte[][] record : sorted)
+                size += RECORD_HEADER_SIZE + record[0].length + record[1].length + record[2].length;
+            if (size > Integer.MAX_VALUE)
+                throw new IllegalArgumentException("The term dictionary is too large: " + size + " bytes");
+
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(n);
+            int offset = 0;
+            for (byte[][] record : sorted) {
+                buffer.putInt(offset);
+                offset += RECORD_HEADER_SIZE + record[0].length + record[1].length + record[2].length;
+            }
+            buffer.putInt(offset);
+            for (int record : byName)
+                buffer.putInt(record);
+            for (byte[][] record : sorted) {
+                buffer.putInt(record[0].length).putInt(record[1].length).putInt(record[2].length)
+                        .put(record[0]).put(record[1]).put(record[2]);
+            }
+            buffer.flip();
+
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (buffer.hasRemaining())
+                    channel.write(buffer);
+            }
+            return n;
+        }
+
+        private static int compare(byte[] b1, byte[] b2) {
+            int n = Math.min(b1.length, b2.length);
+            for (int i = 0; i < n; i++) {
+                int cmp = Integer.compare(b1[i] & 0xFF, b2[i] & 0xFF);
+                if (cmp != 0)
+                    return cmp;
+            }
+            return Integer.compare(b1.length, b2.length);
+        }
+    }
+
+}